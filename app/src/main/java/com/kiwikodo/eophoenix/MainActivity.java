@@ -321,6 +321,10 @@ public class MainActivity extends Activity implements SDCardManager.SDCardListen
             if (logManager != null) {
                 logManager.clearFileLogging();
             }
+            // Stop background video probing before anything else touches the removed card
+            if (mediaManager != null) {
+                try { mediaManager.cancelScan(); } catch (Exception ignored) {}
+            }
             // Stop schedule manager so no scheduled transitions fire while SD is absent
             try {
                 if (scheduleManager != null) {
@@ -1063,6 +1067,18 @@ public class MainActivity extends Activity implements SDCardManager.SDCardListen
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        try { if (slideshowManager != null) slideshowManager.onTrimMemory(level); } catch (Exception ignored) {}
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        try { if (slideshowManager != null) slideshowManager.onLowMemory(); } catch (Exception ignored) {}
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
@@ -1,6 +1,8 @@
 package com.kiwikodo.eophoenix;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class Settings {
     // Nested configuration classes
@@ -35,6 +37,30 @@ public class Settings {
         public int maxVideoPixels;
         public String brightness;
         public int videoPrepareTimeoutMs;
+        public int probeThreads;
+        public int probeTimeoutMs;
+        public int scanDepth;
+        public List<String> includeGlobs;
+        public List<String> excludeGlobs;
+        public int initialBatchSize;
+        public Boolean sniffMediaHeaders;
+        public Integer prefetchCount;
+        public Integer renditionCacheMB;
+        public Boolean exactSizeDecode;
+        public Boolean progressivePreview;
+        public Boolean panoramaPan;
+        public String transition;
+        public Integer transitionDurationMs;
+        public Integer videoPreloadSeconds;
+        public Integer videoMinBufferMs;
+        public Integer videoMaxBufferMs;
+        public Integer videoBufferForPlaybackMs;
+        public Integer videoBackBufferMs;
+        public Boolean videoAudio;
+        public Boolean preferHardwareDecoder;
+        public Boolean gaplessLoop;
+        public Map<String, String> loopClips;
+        public Boolean videoPosters;
     }
 
     public static class LoggingConfig {
@@ -113,6 +139,30 @@ public class Settings {
     private int maxVideoPixels;
     private String brightness;
     private int videoPrepareTimeoutMs;
+    private int probeThreads;
+    private int probeTimeoutMs;
+    private int scanDepth;
+    private List<String> includeGlobs;
+    private List<String> excludeGlobs;
+    private int initialBatchSize;
+    private Boolean sniffMediaHeaders;
+    private Integer prefetchCount;
+    private Integer renditionCacheMB;
+    private Boolean exactSizeDecode;
+    private Boolean progressivePreview;
+    private Boolean panoramaPan;
+    private String transition;
+    private Integer transitionDurationMs;
+    private Integer videoPreloadSeconds;
+    private Integer videoMinBufferMs;
+    private Integer videoMaxBufferMs;
+    private Integer videoBufferForPlaybackMs;
+    private Integer videoBackBufferMs;
+    private Boolean videoAudio;
+    private Boolean preferHardwareDecoder;
+    private Boolean gaplessLoop;
+    private Map<String, String> loopClips;
+    private Boolean videoPosters;
 
     // Getters (support both nested and flat structure)
     public String getWifiSSID() { 
@@ -263,4 +313,154 @@ public class Settings {
         int val = slideshow != null && slideshow.videoPrepareTimeoutMs > 0 ? slideshow.videoPrepareTimeoutMs : videoPrepareTimeoutMs;
         return val > 0 ? val : 15000; 
     }
+
+    // Number of background threads used to probe video metadata during a scan; default 2, capped at 4
+    public int getProbeThreads() {
+        int val = slideshow != null && slideshow.probeThreads > 0 ? slideshow.probeThreads : probeThreads;
+        if (val < 1) return 2;
+        return Math.min(val, 4);
+    }
+
+    // Per-file video probe timeout; default 8000ms
+    public int getProbeTimeoutMs() {
+        int val = slideshow != null && slideshow.probeTimeoutMs > 0 ? slideshow.probeTimeoutMs : probeTimeoutMs;
+        return val > 0 ? val : 8000;
+    }
+
+    // How many levels of subfolders below the media folder are scanned; default 0 (top level only)
+    public int getScanDepth() {
+        int val = slideshow != null && slideshow.scanDepth > 0 ? slideshow.scanDepth : scanDepth;
+        return Math.max(0, val);
+    }
+
+    // Globs matched against paths relative to the media folder; empty means every media file
+    public List<String> getIncludeGlobs() {
+        return slideshow != null && slideshow.includeGlobs != null ? slideshow.includeGlobs : includeGlobs;
+    }
+
+    public List<String> getExcludeGlobs() {
+        return slideshow != null && slideshow.excludeGlobs != null ? slideshow.excludeGlobs : excludeGlobs;
+    }
+
+    // Number of media files found before the slideshow may start while the walk continues; default 50
+    public int getInitialBatchSize() {
+        int val = slideshow != null && slideshow.initialBatchSize > 0 ? slideshow.initialBatchSize : initialBatchSize;
+        return val > 0 ? val : 50;
+    }
+
+    // Check magic bytes of new/changed files so renamed or corrupt files never reach playback; default true
+    public boolean isSniffMediaHeaders() {
+        Boolean val = slideshow != null && slideshow.sniffMediaHeaders != null ? slideshow.sniffMediaHeaders : sniffMediaHeaders;
+        return val != null ? val : true;
+    }
+
+    // Number of upcoming images decoded ahead of time; default 2, 0 disables prefetching
+    public int getPrefetchCount() {
+        Integer val = slideshow != null && slideshow.prefetchCount != null ? slideshow.prefetchCount : prefetchCount;
+        if (val == null || val < 0) return 2;
+        return Math.min(val, 8);
+    }
+
+    // Disk space for screen-sized image renditions; default 64MB, 0 disables the rendition cache
+    public int getRenditionCacheMB() {
+        Integer val = slideshow != null && slideshow.renditionCacheMB != null ? slideshow.renditionCacheMB : renditionCacheMB;
+        if (val == null || val < 0) return 64;
+        return Math.min(val, 1024);
+    }
+
+    // Decode images to exactly the fitted screen size instead of the nearest power of two; default true
+    public boolean isExactSizeDecode() {
+        Boolean val = slideshow != null && slideshow.exactSizeDecode != null ? slideshow.exactSizeDecode : exactSizeDecode;
+        return val != null ? val : true;
+    }
+
+    // Show the EXIF thumbnail or a coarse decode while an uncached image loads; default true
+    public boolean isProgressivePreview() {
+        Boolean val = slideshow != null && slideshow.progressivePreview != null ? slideshow.progressivePreview : progressivePreview;
+        return val != null ? val : true;
+    }
+
+    // Pan across panoramas at screen resolution instead of fitting them; default true
+    public boolean isPanoramaPan() {
+        Boolean val = slideshow != null && slideshow.panoramaPan != null ? slideshow.panoramaPan : panoramaPan;
+        return val != null ? val : true;
+    }
+
+    // Transition between consecutive images: "none", "crossfade" or "slide"; default "none"
+    public String getTransition() {
+        String val = slideshow != null && slideshow.transition != null ? slideshow.transition : transition;
+        return val != null ? val.trim().toLowerCase() : "none";
+    }
+
+    // Length of the image transition; default 600ms, between 100 and 3000
+    public int getTransitionDurationMs() {
+        Integer val = slideshow != null && slideshow.transitionDurationMs != null ? slideshow.transitionDurationMs : transitionDurationMs;
+        if (val == null || val <= 0) return 600;
+        return Math.max(100, Math.min(val, 3000));
+    }
+
+    // Seconds before an image slide ends that a following video is loaded; default 5, 0 disables, capped at 30
+    public int getVideoPreloadSeconds() {
+        Integer val = slideshow != null && slideshow.videoPreloadSeconds != null ? slideshow.videoPreloadSeconds : videoPreloadSeconds;
+        if (val == null) return 5;
+        return Math.max(0, Math.min(val, 30));
+    }
+
+    // Video the player tries to keep buffered ahead; default 2000ms, between 500 and 60000
+    public int getVideoMinBufferMs() {
+        Integer val = slideshow != null && slideshow.videoMinBufferMs != null ? slideshow.videoMinBufferMs : videoMinBufferMs;
+        if (val == null || val <= 0) return 2000;
+        return Math.max(500, Math.min(val, 60000));
+    }
+
+    // Most video the player buffers ahead; default 5000ms, between 1000 and 120000
+    public int getVideoMaxBufferMs() {
+        Integer val = slideshow != null && slideshow.videoMaxBufferMs != null ? slideshow.videoMaxBufferMs : videoMaxBufferMs;
+        if (val == null || val <= 0) return 5000;
+        return Math.max(1000, Math.min(val, 120000));
+    }
+
+    // Video buffered before playback starts or resumes; default 500ms, between 100 and 10000
+    public int getVideoBufferForPlaybackMs() {
+        Integer val = slideshow != null && slideshow.videoBufferForPlaybackMs != null ? slideshow.videoBufferForPlaybackMs : videoBufferForPlaybackMs;
+        if (val == null || val <= 0) return 500;
+        return Math.max(100, Math.min(val, 10000));
+    }
+
+    // Already played video kept in memory; default 0, capped at 30000ms
+    public int getVideoBackBufferMs() {
+        Integer val = slideshow != null && slideshow.videoBackBufferMs != null ? slideshow.videoBackBufferMs : videoBackBufferMs;
+        if (val == null) return 0;
+        return Math.max(0, Math.min(val, 30000));
+    }
+
+    // Play the sound track of videos; default false
+    public boolean isVideoAudio() {
+        Boolean val = slideshow != null && slideshow.videoAudio != null ? slideshow.videoAudio : videoAudio;
+        return val != null ? val : false;
+    }
+
+    // Try hardware video decoders before software ones; default true
+    public boolean isPreferHardwareDecoder() {
+        Boolean val = slideshow != null && slideshow.preferHardwareDecoder != null ? slideshow.preferHardwareDecoder : preferHardwareDecoder;
+        return val != null ? val : true;
+    }
+
+    // Queue looping videos as repetitions on one timeline instead of using repeat mode; default true
+    public boolean isGaplessLoop() {
+        Boolean val = slideshow != null && slideshow.gaplessLoop != null ? slideshow.gaplessLoop : gaplessLoop;
+        return val != null ? val : true;
+    }
+
+    // Part of a video to loop, by file name: "startMs-endMs"; default none
+    public Map<String, String> getLoopClips() {
+        Map<String, String> val = slideshow != null && slideshow.loopClips != null ? slideshow.loopClips : loopClips;
+        return val != null ? val : Collections.<String, String>emptyMap();
+    }
+
+    // Show a stored opening frame of each video while it prepares; default true
+    public boolean isVideoPosters() {
+        Boolean val = slideshow != null && slideshow.videoPosters != null ? slideshow.videoPosters : videoPosters;
+        return val != null ? val : true;
+    }
 }
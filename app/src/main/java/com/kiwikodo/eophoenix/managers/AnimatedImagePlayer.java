@@ -0,0 +1,230 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Movie;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.widget.ImageView;
+
+import java.io.File;
+
+/**
+ * Plays animated GIFs in the slideshow's image view. android.graphics.Movie keeps only the
+ * compressed file and its own composited frame, and each frame is drawn on a background thread
+ * into one of two frame buffers taken from the BitmapLoader pool: one on screen, one being drawn.
+ * Memory therefore stays at two screen-sized frames whatever the frame count.
+ *
+ * Frame timing comes from the GIF itself through Movie.setTime(), which reports when the frame
+ * changes. The clock is sampled at most every MIN_FRAME_MS and a frame is only drawn when it
+ * changed, so fast or oddly timed GIFs cannot drive the decode thread flat out.
+ *
+ * start() and stop() run on the main thread; one animation plays at a time. After shutdown() no
+ * decode thread is recreated until the next start(); late releases free their buffers inline.
+ */
+public class AnimatedImagePlayer {
+    public interface Callback {
+        void onFirstFrame();
+        void onError(Exception e);
+    }
+
+    // Caps frame drawing at 20fps
+    private static final long MIN_FRAME_MS = 50;
+    // Movie holds the whole compressed file; refuse files that would take more than this share of the budget
+    private static final int FILE_BUDGET_DIVISOR = 4;
+
+    private final BitmapLoader loader;
+    private final LogManager logManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread thread;
+    private Handler handler;
+    // Set by shutdown(), cleared by start() (guarded by this)
+    private boolean shutdown = false;
+    // Bumped by every start() and stop(); work for an older animation is dropped
+    private volatile int generation = 0;
+    private Session session;
+    // Frame buffer currently in the view (main thread)
+    private Bitmap shownFrame;
+
+    public AnimatedImagePlayer(BitmapLoader loader, LogManager logManager) {
+        this.loader = loader;
+        this.logManager = logManager;
+    }
+
+    // Null once shut down, so work arriving late cannot start a thread nobody will quit
+    private synchronized Handler getHandler() {
+        if (shutdown) return null;
+        if (thread == null) {
+            thread = new HandlerThread("AnimatedImage", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    /** Open file and play it in view, scaled down to fit viewW x viewH. */
+    public void start(final File file, final ImageView view, final int viewW, final int viewH, final Callback callback) {
+        stop();
+        synchronized (this) {
+            shutdown = false;
+        }
+        final int gen = ++generation;
+        getHandler().post(() -> open(gen, file, view, viewW, viewH, callback));
+    }
+
+    /**
+     * Stop the animation. The last frame stays in the view and is handed to the loader, which
+     * pools it once it is replaced on screen; the other buffer is pooled right away.
+     */
+    public void stop() {
+        generation++;
+        final Bitmap shown = shownFrame;
+        shownFrame = null;
+        if (shown != null) {
+            loader.setDisplayedBitmap(shown);
+            loader.releaseWhenUnused(shown);
+        }
+        final Session ending = session;
+        session = null;
+        if (ending != null) release(ending, shown);
+    }
+
+    public void shutdown() {
+        stop();
+        synchronized (this) {
+            shutdown = true;
+            // Lets the release queued by stop() run first
+            if (thread != null) thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+    }
+
+    // Decode thread
+    private void open(int gen, File file, ImageView view, int viewW, int viewH, Callback callback) {
+        if (gen != generation) return;
+        try {
+            if (file.length() > DecodePlanner.currentBudget() / FILE_BUDGET_DIVISOR) {
+                throw new RuntimeException("Animated image too large for memory: " + (file.length() / 1024) + "KB");
+            }
+            Movie movie = Movie.decodeFile(file.getAbsolutePath());
+            if (movie == null || movie.width() <= 0 || movie.height() <= 0) {
+                throw new RuntimeException("Not a playable animation: " + file.getName());
+            }
+            float scale = Math.min(1f, Math.min((float) viewW / movie.width(), (float) viewH / movie.height()));
+            int frameW = Math.max(1, Math.round(movie.width() * scale));
+            int frameH = Math.max(1, Math.round(movie.height() * scale));
+            final Session opened = new Session(gen, file.getName(), movie, scale,
+                loader.obtainBitmap(frameW, frameH), loader.obtainBitmap(frameW, frameH), view, callback);
+            mainHandler.post(() -> {
+                Handler decode = getHandler();
+                if (gen != generation || decode == null) {
+                    release(opened, null);
+                    return;
+                }
+                session = opened;
+                decode.post(opened::tick);
+            });
+            logManager.addLog("Animating " + file.getName() + " (" + movie.width() + "x" + movie.height() + ", "
+                + movie.duration() + "ms loop, " + frameW + "x" + frameH + " frames)");
+        } catch (Exception | OutOfMemoryError e) {
+            final Exception error = e instanceof Exception ? (Exception) e : new RuntimeException("Out of memory", e);
+            mainHandler.post(() -> {
+                if (gen == generation) callback.onError(error);
+            });
+        }
+    }
+
+    // On the decode thread while it runs, inline after shutdown
+    private void release(final Session ending, final Bitmap shown) {
+        Handler decode = getHandler();
+        if (decode != null) {
+            decode.post(() -> ending.release(shown));
+        } else {
+            ending.release(shown);
+        }
+    }
+
+    // One playing animation; frames are drawn on the decode thread, swapped in on the main thread
+    private final class Session {
+        private final int gen;
+        private final String name;
+        private final Movie movie;
+        private final float scale;
+        private final Bitmap[] frames;
+        private final ImageView view;
+        private final Callback callback;
+        private final long startTime = SystemClock.uptimeMillis();
+        private int drawIndex = 0;
+        private boolean firstFrame = true;
+        private int framesDrawn = 0;
+        private final Runnable tick = this::tick;
+
+        Session(int gen, String name, Movie movie, float scale, Bitmap first, Bitmap second, ImageView view, Callback callback) {
+            this.gen = gen;
+            this.name = name;
+            this.movie = movie;
+            this.scale = scale;
+            this.frames = new Bitmap[] { first, second };
+            this.view = view;
+            this.callback = callback;
+        }
+
+        // Decode thread
+        void tick() {
+            if (gen != generation) return;
+            long now = SystemClock.uptimeMillis();
+            int duration = movie.duration();
+            boolean changed = movie.setTime(duration > 0 ? (int) ((now - startTime) % duration) : 0);
+            if (!changed && !firstFrame) {
+                Handler decode = getHandler();
+                if (decode != null) decode.postAtTime(tick, now + MIN_FRAME_MS);
+                return;
+            }
+            final Bitmap frame = frames[drawIndex];
+            try {
+                frame.eraseColor(Color.BLACK);
+                Canvas canvas = new Canvas(frame);
+                canvas.scale(scale, scale);
+                movie.draw(canvas, 0, 0);
+            } catch (Exception e) {
+                logManager.addLog("Animation frame failed for " + name + ": " + e.getMessage());
+                return;
+            }
+            framesDrawn++;
+            final boolean isFirst = firstFrame;
+            firstFrame = false;
+            final long drawnAt = now;
+            mainHandler.post(() -> {
+                if (gen != generation) return;
+                if (isFirst) view.setScaleType(ImageView.ScaleType.FIT_CENTER);
+                view.setImageBitmap(frame);
+                shownFrame = frame;
+                if (isFirst) callback.onFirstFrame();
+                // Only now is the other buffer off screen and free to draw into
+                Handler decode = getHandler();
+                if (decode == null) return;
+                decode.post(() -> {
+                    drawIndex ^= 1;
+                    // A single-frame GIF has nothing more to draw
+                    if (duration > 0) decode.postAtTime(tick, drawnAt + MIN_FRAME_MS);
+                });
+            });
+        }
+
+        // Decode thread, or the caller's after shutdown; shown stays with the view, the rest goes back to the pool
+        void release(Bitmap shown) {
+            Handler decode = getHandler();
+            if (decode != null) decode.removeCallbacks(tick);
+            for (Bitmap frame : frames) {
+                if (frame != shown) loader.returnToPool(frame);
+            }
+            long seconds = Math.max(1, (SystemClock.uptimeMillis() - startTime) / 1000);
+            logManager.addLog("Animation " + name + " stopped: " + framesDrawn + " frames in " + seconds + "s");
+        }
+    }
+}
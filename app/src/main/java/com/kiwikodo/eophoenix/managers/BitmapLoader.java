@@ -1,31 +1,129 @@
 package com.kiwikodo.eophoenix.managers;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.media.ExifInterface;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
 import android.util.LruCache;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * Simple background bitmap loader with an in-memory LRU cache.
  * Designed for API19 devices where we want deterministic, low-dependency behavior.
+ *
+ * The slideshow also hands in the next few images via prefetch(); they are decoded on a
+ * low-priority thread into the same cache, within a budget, so the next slide is normally a
+ * cache hit.
+ *
+ * Decodes draw their target bitmap from a BitmapPool via inBitmap. Bitmaps that leave the cache
+ * go back to the pool once they are neither on screen (see setDisplayedBitmap) nor on their way
+ * to a callback, so callers must not recycle bitmaps they receive.
+ *
+ * Images are fitted to the target: by default the decode itself lands on the fitCenter size (see
+ * DecodePlanner) rather than the nearest power of two above it. Pixels stay in the file's stored
+ * orientation; the EXIF orientation, read before planning so quarter-turned images are sized
+ * against the transposed target, is handed to the callback for the view to apply (see
+ * ImageOrientation), so upright display needs no rotated copy. With a RenditionCache attached,
+ * each freshly decoded image is also written to disk at that size and later misses decode the
+ * small rendition instead of the original.
+ *
+ * The loader reacts to memory pressure (see onTrimMemory): the cache and pool are trimmed in
+ * proportion to the level rather than wiped, and each trim is logged with the memory released.
+ *
+ * Every load() returns a Ticket. Requests are keyed by file, so concurrent loads and prefetches
+ * of one image share a single decode; cancelled tickets get no callback.
+ *
+ * A PreviewCallback additionally receives a small preview (the EXIF thumbnail, or a heavily
+ * subsampled decode) before a slow decode from the original, so the slide can change right away
+ * and the full image is swapped in when it is ready.
+ *
+ * Images far wider or taller than the screen are handed to a PanoramaCallback as a
+ * PanoramaDrawable instead, which decodes only the visible strips and pans across them; other
+ * callbacks still get the fitted bitmap.
  */
-public class BitmapLoader {
+public class BitmapLoader implements ComponentCallbacks2 {
     public interface Callback {
-        void onSuccess(Bitmap bitmap, boolean fromCache);
+        /** orientation is the EXIF orientation the bitmap must be shown with. */
+        void onSuccess(Bitmap bitmap, int orientation, boolean fromCache);
         void onError(Exception e);
     }
 
+    /** Optional first stage: a low-resolution preview delivered before onSuccess. */
+    public interface PreviewCallback extends Callback {
+        void onPreview(Bitmap preview, int orientation);
+    }
+
+    /**
+     * Optional: takes panoramas as a tiled, panning drawable instead of onSuccess. The receiver
+     * owns the drawable and must release() it.
+     */
+    public interface PanoramaCallback extends Callback {
+        void onPanorama(PanoramaDrawable panorama);
+    }
+
+    private static final int STATS_LOG_EVERY = 20;
+    // Subsampled previews aim for this fraction of the target's longer side
+    private static final int PREVIEW_DIVISOR = 8;
+
     private final LruCache<String, Bitmap> cache;
+    // EXIF orientation of cached bitmaps that are not upright as stored
+    private final Map<String, Integer> orientations = new HashMap<>();
+    private final BitmapPool bitmapPool;
+    // Bitmap ownership: on screen, being delivered to callbacks, or evicted while in one of those states
+    private final Object bitmapLock = new Object();
+    private Bitmap displayedBitmap;
+    // Previous image still drawn while a slide transition runs
+    private Bitmap outgoingBitmap;
+    private final IdentityHashMap<Bitmap, Integer> delivering = new IdentityHashMap<>();
+    private final Set<Bitmap> evictedInUse = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
     private ExecutorService executor;
+    private ExecutorService prefetchExecutor;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final Activity activity;
     private final LogManager logManager;
+    private volatile RenditionCache renditionCache;
+    private final DecodePlanner planner = new DecodePlanner();
+    private volatile boolean progressivePreview = true;
+    private volatile boolean panoramaPan = true;
+    // Panoramas whose fitted copy is in the memory cache, so PanoramaCallbacks skip it; a key leaves
+    // with its cache entry, and a panorama without a cached copy is detected again by its decode
+    private final Set<String> panoramaKeys = new HashSet<>();
+
+    // Keys being decoded, with the tickets waiting for them; a prefetch starts with none
+    private final Map<String, List<Ticket>> inFlight = new HashMap<>();
+    // Prefetched but not yet shown (key -> KB); bounded by prefetchBudgetKB
+    private final Map<String, Integer> prefetched = new HashMap<>();
+    private final int prefetchBudgetKB;
+    private int prefetchGeneration = 0;
+    private volatile int cancelEpoch = 0;
+    private int loads = 0;
+    private int cacheHits = 0;
+    private int prefetchHits = 0;
+    private int joinedDecodes = 0;
+    private int cancelledDecodes = 0;
+    private int previews = 0;
+    private int panoramas = 0;
+    private int misses = 0;
+    private int prefetchDecodes = 0;
+    private int prefetchOverBudget = 0;
 
     public BitmapLoader(Activity activity, LogManager logManager) {
         this.activity = activity;
@@ -34,6 +132,10 @@ public class BitmapLoader {
         // Use 1/8th of available VM memory for cache (tuned conservative)
         final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
         final int cacheSize = Math.max(4 * 1024, maxMemory / 8);
+        // Prefetched slides may fill at most half the cache so they never evict what is on screen
+        prefetchBudgetKB = cacheSize / 2;
+        // Room for a few spare screen-sized bitmaps on top of the cache
+        bitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
 
         cache = new LruCache<String, Bitmap>(cacheSize) {
             @Override
@@ -41,11 +143,44 @@ public class BitmapLoader {
                 // size in KB
                 return value.getByteCount() / 1024;
             }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null) {
+                    synchronized (orientations) {
+                        orientations.remove(key);
+                    }
+                    synchronized (panoramaKeys) {
+                        panoramaKeys.remove(key);
+                    }
+                }
+                if (oldValue != newValue) onLeftCache(oldValue);
+            }
         };
 
         executor = Executors.newSingleThreadExecutor();
     }
 
+    /** Attach (or with null, detach) the on-disk rendition cache used below the memory cache. */
+    public void setRenditionCache(RenditionCache renditionCache) {
+        this.renditionCache = renditionCache;
+    }
+
+    /** With false, decodes stop at the power-of-two sample size and the view scales the rest. */
+    public void setExactSizeDecode(boolean exactSizeDecode) {
+        planner.setExactSize(exactSizeDecode);
+    }
+
+    /** With false, PreviewCallbacks only receive the full image. */
+    public void setProgressivePreview(boolean progressivePreview) {
+        this.progressivePreview = progressivePreview;
+    }
+
+    /** With false, panoramas are fitted to the screen like any other image. */
+    public void setPanoramaPan(boolean panoramaPan) {
+        this.panoramaPan = panoramaPan;
+    }
+
     private synchronized ExecutorService getExecutor() {
         if (executor == null || executor.isShutdown() || executor.isTerminated()) {
             executor = Executors.newSingleThreadExecutor();
@@ -53,75 +188,699 @@ public class BitmapLoader {
         return executor;
     }
 
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null || prefetchExecutor.isShutdown() || prefetchExecutor.isTerminated()) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+                // Stay out of the way of the UI thread and the foreground decode
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                r.run();
+            }, "BitmapPrefetch"));
+        }
+        return prefetchExecutor;
+    }
+
     private static String keyForFile(File f) {
         if (f == null) return null;
         return f.getAbsolutePath() + ":" + f.lastModified();
     }
 
-    public void load(final File file, final int targetW, final int targetH, final Callback cb) {
+    /**
+     * Handle for one load() request. Cancelling it suppresses the callback, and the decode is
+     * skipped if nothing else still wants the image. cancelAll() cancels every ticket issued
+     * before it.
+     */
+    public final class Ticket {
+        private final Callback callback;
+        private final int epoch;
+        private volatile boolean cancelled;
+
+        Ticket(Callback callback, int epoch) {
+            this.callback = callback;
+            this.epoch = epoch;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled || epoch != cancelEpoch;
+        }
+    }
+
+    public Ticket load(final File file, final int targetW, final int targetH, final Callback cb) {
+        final Ticket ticket = new Ticket(cb, cancelEpoch);
         if (file == null) {
             if (cb != null) cb.onError(new IllegalArgumentException("file is null"));
-            return;
+            return ticket;
         }
 
         final String key = keyForFile(file);
-        final Bitmap cached = cache.get(key);
+        // A cached fitted copy of a panorama is no use to a caller that can pan it
+        boolean panoramaWanted = panoramaPan && cb instanceof PanoramaCallback && isPanoramaKey(key);
+        final Bitmap cached = panoramaWanted ? null : cache.get(key);
         if (cached != null && !cached.isRecycled()) {
+            recordLoad(key, true, false);
             // Return cached bitmap on main thread
-            mainHandler.post(() -> {
-                if (cb != null) cb.onSuccess(cached, true);
-            });
-            return;
+            deliver(ticket, cached, orientationFor(key), true);
+            return ticket;
+        }
+
+        synchronized (inFlight) {
+            List<Ticket> waiters = inFlight.get(key);
+            if (waiters != null) {
+                // Already being decoded or prefetched; share that result instead of decoding twice
+                waiters.add(ticket);
+                recordLoad(key, false, true);
+                return ticket;
+            }
+            waiters = new ArrayList<>();
+            waiters.add(ticket);
+            inFlight.put(key, waiters);
+        }
+        recordLoad(key, false, false);
+
+        try {
+            getExecutor().submit(() -> runDecode(file, key, -1, targetW, targetH));
+        } catch (Exception e) {
+            synchronized (inFlight) {
+                inFlight.remove(key);
+            }
+            deliverError(Collections.singletonList(ticket), e);
         }
+        return ticket;
+    }
+
+    /**
+     * Cancel every outstanding load and drop queued prefetches. Callbacks that have not run yet
+     * will not run; decodes already in progress finish into the cache.
+     */
+    public void cancelAll() {
+        synchronized (this) {
+            cancelEpoch++;
+            prefetchGeneration++;
+        }
+    }
 
-        getExecutor().submit(() -> {
+    /**
+     * Decode the given upcoming images in the background, in order, so they are cached by the
+     * time the slideshow asks for them. Each call replaces the previous lookahead: queued
+     * prefetches for files no longer listed are dropped unless a load() is already waiting.
+     */
+    public void prefetch(List<File> upcoming, final int targetW, final int targetH) {
+        final int generation;
+        synchronized (this) {
+            generation = ++prefetchGeneration;
+        }
+        Set<String> wanted = new HashSet<>();
+        for (File file : upcoming) {
+            wanted.add(keyForFile(file));
+        }
+        synchronized (prefetched) {
+            // Slides that are no longer upcoming stop counting against the budget; the LRU evicts them
+            Iterator<String> it = prefetched.keySet().iterator();
+            while (it.hasNext()) {
+                if (!wanted.contains(it.next())) it.remove();
+            }
+        }
+
+        for (final File file : upcoming) {
+            final String key = keyForFile(file);
+            // Panoramas are opened when shown; their tiles are not worth decoding ahead
+            if (panoramaPan && isPanoramaKey(key)) continue;
+            Bitmap cached = cache.get(key);
+            if (cached != null && !cached.isRecycled()) continue;
+            synchronized (inFlight) {
+                if (inFlight.containsKey(key)) continue;
+                inFlight.put(key, new ArrayList<Ticket>());
+            }
             try {
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-
-                options.inSampleSize = calculateInSampleSize(options, targetW, targetH);
-                options.inJustDecodeBounds = false;
-                options.inPreferredConfig = Bitmap.Config.RGB_565; // memory-saver
-                options.inMutable = true; // allow inBitmap on supported platforms
-
-                Bitmap bmp = null;
-                int attempts = 0;
-                while (attempts < 3) {
+                getPrefetchExecutor().submit(() -> runDecode(file, key, generation, targetW, targetH));
+            } catch (Exception e) {
+                synchronized (inFlight) {
+                    inFlight.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode one in-flight key and hand the result to every ticket still waiting for it.
+     * prefetchGen is the prefetch generation that queued it, or -1 for a foreground load. The
+     * key stays in flight until the bitmap is cached so late requests join instead of decoding
+     * again.
+     */
+    private void runDecode(File file, String key, int prefetchGen, int targetW, int targetH) {
+        Bitmap bmp = null;
+        Exception error = null;
+        try {
+            boolean awaited = hasLiveWaiter(key);
+            boolean stale;
+            synchronized (this) {
+                stale = prefetchGen < 0 || prefetchGen != prefetchGeneration;
+            }
+            if (awaited || !stale) {
+                RenditionCache.Rendition rendition = findRendition(file, targetW, targetH);
+                File source = rendition != null ? rendition.file : file;
+                int orientation = rendition != null ? rendition.orientation : ImageOrientation.read(file);
+                // Quarter-turned images are planned against the transposed target; the view turns them
+                boolean transposed = ImageOrientation.isTransposed(orientation);
+                int decodeW = transposed ? targetH : targetW;
+                int decodeH = transposed ? targetW : targetH;
+                BitmapFactory.Options bounds = readBounds(source);
+                boolean panorama = panoramaPan && ImageOrientation.isNormal(orientation)
+                    && PanoramaDrawable.isPanorama(bounds.outWidth, bounds.outHeight, targetW, targetH);
+                if (panorama) {
+                    deliverPanorama(file, key, targetW, targetH);
+                    // Only callers that cannot pan still need the fitted bitmap
+                    awaited = hasLiveWaiter(key);
+                }
+                int estimatedKB = estimateKB(bounds, decodeW, decodeH);
+                if (panorama && !awaited) {
+                    // Shown tiled, or a prefetch that will be opened as a panorama when shown
+                    synchronized (this) {
+                        cancelledDecodes++;
+                    }
+                } else if (!awaited && (prefetchedKB() + estimatedKB > prefetchBudgetKB
+                        || estimatedKB * 1024L > DecodePlanner.currentBudget())) {
+                    synchronized (this) {
+                        prefetchOverBudget++;
+                    }
+                } else {
+                    // Renditions decode quickly enough that a preview would only add a flash
+                    if (rendition == null) deliverPreview(file, key, orientation, targetW, targetH);
+                    // The decode overwrites the bounds with the output size
+                    int sourceW = bounds.outWidth;
+                    int sourceH = bounds.outHeight;
                     try {
-                        bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-                        if (bmp != null) break;
-                    } catch (OutOfMemoryError oom) {
-                        logManager.addLog("BitmapLoader OOM on attempt " + attempts + " for " + file.getName());
-                        // increase sample and retry
-                        options.inSampleSize = Math.max(1, options.inSampleSize * 2);
-                        attempts++;
-                        // allow GC opportunity but do not call System.gc()
+                        bmp = decode(source, bounds, decodeW, decodeH);
+                    } catch (Exception e) {
+                        if (rendition == null) throw e;
+                        // Drop the bad rendition and start over from the original
+                        logManager.addLog("Unreadable rendition for " + file.getName() + ", decoding original");
+                        RenditionCache renditions = renditionCache;
+                        if (renditions != null) renditions.invalidate(file, targetW, targetH);
+                        runDecode(file, key, prefetchGen, targetW, targetH);
+                        return;
+                    }
+                    // Deliver before the rendition write so the slide is not held up by it
+                    deliverToWaiters(key, bmp, orientation);
+                    // Not cached yet, so the bitmap cannot be evicted and pooled while it is written out
+                    // A decode shrunk for a short heap would be served blurry on every later run
+                    if (rendition == null && reachesFittedSize(bmp, sourceW, sourceH, decodeW, decodeH)) {
+                        storeRendition(file, targetW, targetH, bmp, orientation);
+                    }
+                    if (!ImageOrientation.isNormal(orientation)) {
+                        synchronized (orientations) {
+                            orientations.put(key, orientation);
+                        }
+                    }
+                    // Marked before the copy is visible in the cache, so a panning caller never takes it
+                    if (panorama) {
+                        synchronized (panoramaKeys) {
+                            panoramaKeys.add(key);
+                        }
                     }
+                    cache.put(key, bmp);
+                    if (prefetchGen >= 0) {
+                        synchronized (prefetched) {
+                            prefetched.put(key, bmp.getByteCount() / 1024);
+                        }
+                        synchronized (this) {
+                            prefetchDecodes++;
+                        }
+                    }
+                }
+            } else {
+                synchronized (this) {
+                    cancelledDecodes++;
                 }
+            }
+        } catch (Exception e) {
+            error = e;
+            logManager.addLog("Decode failed for " + file.getName() + ": " + e.getMessage());
+        }
 
-                if (bmp == null) {
-                    throw new RuntimeException("Failed to decode bitmap: " + file.getAbsolutePath());
+        final List<Ticket> waiters;
+        synchronized (inFlight) {
+            waiters = inFlight.remove(key);
+        }
+        if (waiters == null || waiters.isEmpty()) return;
+        if (bmp != null) {
+            // Requests that joined while the rendition was written
+            int orientation = orientationFor(key);
+            for (Ticket ticket : waiters) deliver(ticket, bmp, orientation, false);
+            return;
+        }
+        deliverError(waiters, error != null ? error
+            : new RuntimeException("Failed to decode bitmap: " + file.getAbsolutePath()));
+    }
+
+    private boolean hasLiveWaiter(String key) {
+        synchronized (inFlight) {
+            List<Ticket> waiters = inFlight.get(key);
+            if (waiters == null) return false;
+            for (Ticket ticket : waiters) {
+                if (!ticket.isCancelled()) return true;
+            }
+            return false;
+        }
+    }
+
+    private boolean isPanoramaKey(String key) {
+        synchronized (panoramaKeys) {
+            return panoramaKeys.contains(key);
+        }
+    }
+
+    /**
+     * Open the image as a PanoramaDrawable for the first live PanoramaCallback waiting on key.
+     * That ticket leaves the waiters on success; on failure it stays and gets the fitted bitmap.
+     */
+    private void deliverPanorama(File file, String key, int targetW, int targetH) {
+        Ticket taker = null;
+        synchronized (inFlight) {
+            List<Ticket> waiters = inFlight.get(key);
+            if (waiters == null) return;
+            for (Ticket ticket : waiters) {
+                if (ticket.callback instanceof PanoramaCallback && !ticket.isCancelled()) {
+                    taker = ticket;
+                    break;
                 }
+            }
+        }
+        if (taker == null) return;
+        final PanoramaDrawable panorama = openPanorama(file, targetW, targetH);
+        if (panorama == null) return;
+        synchronized (inFlight) {
+            List<Ticket> waiters = inFlight.get(key);
+            if (waiters != null) waiters.remove(taker);
+        }
+        synchronized (this) {
+            panoramas++;
+        }
+        final Ticket ticket = taker;
+        mainHandler.post(() -> {
+            if (ticket.isCancelled()) {
+                panorama.release();
+                return;
+            }
+            ((PanoramaCallback) ticket.callback).onPanorama(panorama);
+        });
+    }
+
+    private PanoramaDrawable openPanorama(File file, int viewW, int viewH) {
+        BitmapRegionDecoder decoder = null;
+        PanoramaDrawable panorama = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+            panorama = new PanoramaDrawable(this, decoder, file.getName(), viewW, viewH);
+            if (panorama.estimatedBytes() > DecodePlanner.currentBudget()) {
+                logManager.addLog("Not enough memory to pan " + file.getName() + ", fitting it instead");
+                decoder.recycle();
+                return null;
+            }
+            panorama.decodeInitialTiles();
+            logManager.addLog("Panning " + file.getName() + " (" + decoder.getWidth() + "x" + decoder.getHeight() + ")");
+            return panorama;
+        } catch (Exception e) {
+            logManager.addLog("Region decode failed for " + file.getName() + ", fitting it instead: " + e.getMessage());
+            if (panorama != null) {
+                panorama.release();
+            } else if (decoder != null) {
+                decoder.recycle();
+            }
+            return null;
+        }
+    }
+
+    /** Run a tile decode for a PanoramaDrawable on the foreground decode thread. */
+    void runOnDecodeThread(Runnable task) {
+        try {
+            getExecutor().submit(task);
+        } catch (Exception e) {
+            logManager.addLog("Could not queue panorama tile: " + e.getMessage());
+        }
+    }
+
+    /** Run low-priority work, such as extracting a video poster, on the prefetch thread. */
+    void runInBackground(Runnable task) {
+        try {
+            getPrefetchExecutor().submit(task);
+        } catch (Exception e) {
+            logManager.addLog("Could not queue background task: " + e.getMessage());
+        }
+    }
 
-                // Put in cache
-                cache.put(key, bmp);
+    /** Give a PanoramaDrawable tile back for reuse by later decodes. */
+    void returnToPool(Bitmap bitmap) {
+        bitmapPool.put(bitmap);
+    }
 
-                final Bitmap result = bmp;
-                mainHandler.post(() -> {
-                    if (cb != null) cb.onSuccess(result, false);
-                });
+    /** A mutable RGB_565 bitmap of this size, taken from the pool when one fits. */
+    Bitmap obtainBitmap(int width, int height) {
+        Bitmap pooled = bitmapPool.get(width * height * 2);
+        if (pooled != null) {
+            try {
+                pooled.reconfigure(width, height, Bitmap.Config.RGB_565);
+                return pooled;
             } catch (Exception e) {
-                mainHandler.post(() -> {
-                    if (cb != null) cb.onError(e);
-                });
+                pooled.recycle();
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * Take over a bitmap the loader did not decode (e.g. an animation frame left on screen): it
+     * goes back to the pool once it is no longer displayed.
+     */
+    void releaseWhenUnused(Bitmap bitmap) {
+        synchronized (bitmapLock) {
+            evictedInUse.add(bitmap);
+        }
+        releaseIfUnused(bitmap);
+    }
+
+    void logPanorama(String message) {
+        logManager.addLog(message);
+    }
+
+    private int orientationFor(String key) {
+        synchronized (orientations) {
+            Integer orientation = orientations.get(key);
+            return orientation != null ? orientation : ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private void deliverPreview(File file, String key, final int orientation, int targetW, int targetH) {
+        if (!progressivePreview) return;
+        final List<Ticket> wanting = new ArrayList<>();
+        synchronized (inFlight) {
+            List<Ticket> waiters = inFlight.get(key);
+            if (waiters == null) return;
+            for (Ticket ticket : waiters) {
+                if (ticket.callback instanceof PreviewCallback && !ticket.isCancelled()) wanting.add(ticket);
+            }
+        }
+        if (wanting.isEmpty()) return;
+        try {
+            final Bitmap preview = decodePreview(file, targetW, targetH);
+            if (preview == null) return;
+            synchronized (this) {
+                previews++;
+            }
+            // Posted before the full result, so it can never replace it
+            mainHandler.post(() -> {
+                for (Ticket ticket : wanting) {
+                    if (!ticket.isCancelled()) ((PreviewCallback) ticket.callback).onPreview(preview, orientation);
+                }
+            });
+        } catch (Exception e) {
+            logManager.addLog("Preview failed for " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fast first pass: the JPEG thumbnail embedded in the EXIF data, which costs a few KB of
+     * reading, or failing that a decode at 1/8 of the target size. Previews are small and never
+     * pooled or cached; like the full image they are shown with the file's EXIF orientation.
+     */
+    private Bitmap decodePreview(File file, int targetW, int targetH) {
+        Bitmap preview = null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        try {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            byte[] thumbnail = exif.getThumbnail();
+            if (thumbnail != null) preview = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+        } catch (Exception ignored) {}
+        if (preview == null) {
+            BitmapFactory.Options bounds = readBounds(file);
+            int edge = Math.max(1, Math.max(targetW, targetH) / PREVIEW_DIVISOR);
+            int sample = 1;
+            while (Math.max(bounds.outWidth, bounds.outHeight) / (sample * 2) >= edge) sample *= 2;
+            options.inSampleSize = sample;
+            preview = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        }
+        // Sized in pixels like the full image, so the orientation matrix matches the drawable
+        if (preview != null) preview.setDensity(Bitmap.DENSITY_NONE);
+        return preview;
+    }
+
+    private void deliverToWaiters(String key, Bitmap bitmap, int orientation) {
+        List<Ticket> ready;
+        synchronized (inFlight) {
+            List<Ticket> waiters = inFlight.get(key);
+            if (waiters == null || waiters.isEmpty()) return;
+            ready = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (Ticket ticket : ready) deliver(ticket, bitmap, orientation, false);
+    }
+
+    private void deliverError(final List<Ticket> tickets, final Exception error) {
+        mainHandler.post(() -> {
+            for (Ticket ticket : tickets) {
+                if (ticket.callback != null && !ticket.isCancelled()) ticket.callback.onError(error);
+            }
+        });
+    }
+
+    // Post a result to the main thread; the bitmap cannot be pooled until the callback has run
+    private void deliver(final Ticket ticket, final Bitmap bitmap, final int orientation, final boolean fromCache) {
+        if (ticket.isCancelled()) return;
+        synchronized (bitmapLock) {
+            Integer count = delivering.get(bitmap);
+            delivering.put(bitmap, count == null ? 1 : count + 1);
+        }
+        mainHandler.post(() -> {
+            try {
+                // Checked again here: the slide may have moved on while this was queued
+                if (ticket.callback != null && !ticket.isCancelled()) {
+                    ticket.callback.onSuccess(bitmap, orientation, fromCache);
+                }
+            } finally {
+                synchronized (bitmapLock) {
+                    Integer count = delivering.get(bitmap);
+                    if (count == null || count <= 1) delivering.remove(bitmap); else delivering.put(bitmap, count - 1);
+                }
+                releaseIfUnused(bitmap);
             }
         });
     }
 
+    /**
+     * Tell the loader which bitmap is on screen (null when none). The previous one goes back to
+     * the pool if the cache no longer holds it; this replaces recycling by hand.
+     */
+    public void setDisplayedBitmap(Bitmap bitmap) {
+        Bitmap previous;
+        synchronized (bitmapLock) {
+            previous = displayedBitmap;
+            displayedBitmap = bitmap;
+        }
+        if (previous != null && previous != bitmap) releaseIfUnused(previous);
+    }
+
+    /** Like setDisplayedBitmap, for the image a transition is moving off screen (null when done). */
+    public void setOutgoingBitmap(Bitmap bitmap) {
+        Bitmap previous;
+        synchronized (bitmapLock) {
+            previous = outgoingBitmap;
+            outgoingBitmap = bitmap;
+        }
+        if (previous != null && previous != bitmap) releaseIfUnused(previous);
+    }
+
+    private void onLeftCache(Bitmap bitmap) {
+        synchronized (bitmapLock) {
+            if (bitmap == displayedBitmap || bitmap == outgoingBitmap || delivering.containsKey(bitmap)) {
+                // Still in use; pooled once it is replaced on screen or delivered
+                evictedInUse.add(bitmap);
+                return;
+            }
+        }
+        bitmapPool.put(bitmap);
+    }
+
+    private void releaseIfUnused(Bitmap bitmap) {
+        synchronized (bitmapLock) {
+            if (bitmap == displayedBitmap || bitmap == outgoingBitmap || delivering.containsKey(bitmap)) return;
+            if (!evictedInUse.remove(bitmap)) return; // still cached
+        }
+        bitmapPool.put(bitmap);
+    }
+
+    private int prefetchedKB() {
+        synchronized (prefetched) {
+            int total = 0;
+            for (Integer kb : prefetched.values()) total += kb;
+            return total;
+        }
+    }
+
+    private void recordLoad(String key, boolean cacheHit, boolean joined) {
+        boolean wasPrefetched;
+        synchronized (prefetched) {
+            wasPrefetched = prefetched.remove(key) != null;
+        }
+        String summary = null;
+        synchronized (this) {
+            loads++;
+            if (cacheHit) cacheHits++;
+            if (cacheHit && wasPrefetched) prefetchHits++;
+            if (joined) joinedDecodes++;
+            if (!cacheHit && !joined) misses++;
+            if (loads % STATS_LOG_EVERY == 0) {
+                summary = "BitmapLoader stats: " + loads + " loads, " + cacheHits + " cache hits ("
+                    + prefetchHits + " prefetched), " + joinedDecodes + " joined in-flight decode, "
+                    + misses + " misses, " + cancelledDecodes + " cancelled, " + previews + " previews, "
+                    + panoramas + " panoramas; " + prefetchDecodes
+                    + " prefetch decodes, " + prefetchOverBudget + " skipped over budget; "
+                    + bitmapPool.stats() + "; " + planner.stats();
+                RenditionCache renditions = renditionCache;
+                if (renditions != null) summary += "; " + renditions.stats();
+            }
+        }
+        if (summary != null) logManager.addLog(summary);
+    }
+
+    private static BitmapFactory.Options readBounds(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        return options;
+    }
+
+    // Projected RGB_565 size of the planned decode, used for the prefetch budget
+    private int estimateKB(BitmapFactory.Options bounds, int targetW, int targetH) {
+        return planner.plan(bounds, targetW, targetH) / 1024;
+    }
+
+    private RenditionCache.Rendition findRendition(File file, int targetW, int targetH) {
+        RenditionCache renditions = renditionCache;
+        return renditions != null ? renditions.get(file, targetW, targetH) : null;
+    }
+
+    private void storeRendition(File file, int targetW, int targetH, Bitmap bitmap, int orientation) {
+        RenditionCache renditions = renditionCache;
+        if (renditions != null) renditions.put(file, targetW, targetH, bitmap, orientation);
+    }
+
+    // Whether bmp is as large as the unconstrained plan, i.e. fitToBudget did not shrink it
+    private static boolean reachesFittedSize(Bitmap bmp, int sourceW, int sourceH, int targetW, int targetH) {
+        if (sourceW <= 0 || sourceH <= 0) return false;
+        float scale = Math.min(1f, Math.min((float) targetW / sourceW, (float) targetH / sourceH));
+        // Allow a pixel for rounding in the density scale
+        return bmp.getWidth() >= Math.round(sourceW * scale) - 1;
+    }
+
+    private Bitmap decode(File file, BitmapFactory.Options options, int targetW, int targetH) {
+        planner.plan(options, targetW, targetH);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565; // memory-saver
+        options.inMutable = true; // required for inBitmap reuse
+        // KitKat reuses any pooled bitmap whose allocation is at least the decoded size
+        Bitmap reusable = bitmapPool.get(DecodePlanner.plannedByteCount(options));
+        if (!planner.fitToBudget(options, reusable != null ? reusable.getAllocationByteCount() : 0)) {
+            bitmapPool.put(reusable);
+            throw new RuntimeException("Not enough memory to decode " + file.getName() + " ("
+                + options.outWidth + "x" + options.outHeight + ")");
+        }
+        options.inBitmap = reusable;
+        int planned = DecodePlanner.plannedByteCount(options);
+
+        Bitmap bmp = null;
+        try {
+            try {
+                bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) throw e;
+                // The pooled bitmap could not take this image; decode into a fresh one
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            }
+        } catch (OutOfMemoryError oom) {
+            // The plan should prevent this; fail the one image rather than retrying on a starved heap
+            planner.recordOutOfMemory();
+            logManager.addLog("BitmapLoader OOM despite plan of " + (planned / 1024) + "KB for " + file.getName());
+        }
+
+        if (bmp == null) {
+            if (options.inBitmap != null) bitmapPool.put(options.inBitmap);
+            throw new RuntimeException("Failed to decode bitmap: " + file.getAbsolutePath());
+        }
+        planner.recordDecode(planned, bmp.getByteCount());
+        // Density scaling leaves inTargetDensity on the bitmap, and BitmapDrawable would size itself
+        // by it; ImageOrientation builds its matrix from pixel sizes, so the bitmap must have none
+        bmp.setDensity(Bitmap.DENSITY_NONE);
+        return bmp;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        float keep;
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            keep = 0f;
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            keep = 0.25f;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // BACKGROUND and UI_HIDDEN: we are not on screen, keep half for a quick return
+            keep = 0.5f;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            keep = 0.25f;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            keep = 0.5f;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            keep = 0.75f;
+        } else {
+            return;
+        }
+        trim(keep, "onTrimMemory(" + level + ")");
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(0f, "onLowMemory");
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Shrink the cache to keepFraction of its capacity, least recently used first, and the pool
+     * likewise. Bitmaps that are on screen or being delivered are only released once free.
+     */
+    public void trim(float keepFraction, String reason) {
+        try {
+            int cacheBeforeKB = cache.size();
+            cache.trimToSize((int) (cache.maxSize() * keepFraction));
+            int cacheAfterKB = cache.size();
+            Set<String> cachedKeys = cache.snapshot().keySet();
+            synchronized (prefetched) {
+                // Trimmed prefetches no longer count against the prefetch budget
+                prefetched.keySet().retainAll(cachedKeys);
+            }
+            // Evicted bitmaps went to the pool first, so trim it afterwards
+            long poolBeforeKB = bitmapPool.getPooledBytes() / 1024;
+            bitmapPool.trimToSize((long) (bitmapPool.getMaxBytes() * keepFraction));
+            long poolAfterKB = bitmapPool.getPooledBytes() / 1024;
+            logManager.addLog("BitmapLoader trim (" + reason + ", keep " + Math.round(keepFraction * 100) + "%): cache "
+                + cacheBeforeKB + "->" + cacheAfterKB + "KB, pool " + poolBeforeKB + "->" + poolAfterKB + "KB");
+        } catch (Exception e) {
+            logManager.addLog("Error trimming bitmap cache: " + e.getMessage());
+        }
+    }
+
     public void clearCache() {
         try {
             cache.evictAll();
+            synchronized (prefetched) {
+                prefetched.clear();
+            }
         } catch (Exception e) {
             // best effort
             logManager.addLog("Error evicting bitmap cache: " + e.getMessage());
@@ -131,23 +890,12 @@ public class BitmapLoader {
     public void shutdown() {
         try {
             if (executor != null) executor.shutdownNow();
+            if (prefetchExecutor != null) prefetchExecutor.shutdownNow();
         } catch (Exception ignored) {}
-        clearCache();
-    }
-
-    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        int height = options.outHeight;
-        int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-            int halfHeight = height / 2;
-            int halfWidth = width / 2;
-
-            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
-            }
+        synchronized (inFlight) {
+            inFlight.clear();
         }
-        return inSampleSize;
+        clearCache();
+        bitmapPool.clear();
     }
 }
@@ -0,0 +1,126 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps for BitmapFactory.Options.inBitmap. Since KitKat a decode may reuse
+ * any mutable bitmap whose allocation is at least as large as the decoded image, so bitmaps are
+ * bucketed by allocation size and a request takes the smallest one that fits. Slideshow slides
+ * are nearly all screen-sized, so at steady state every decode lands in a pooled bitmap instead
+ * of a fresh multi-megabyte allocation.
+ */
+public class BitmapPool {
+    // Do not hand out a bitmap more than this many times larger than needed
+    private static final int MAX_OVERSIZE = 4;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final long maxBytes;
+    private long pooledBytes = 0;
+    private int requests = 0;
+    private int reuses = 0;
+    private int returned = 0;
+    private int dropped = 0;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** A pooled bitmap with room for requiredBytes, or null if none fits. */
+    public synchronized Bitmap get(int requiredBytes) {
+        requests++;
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(requiredBytes);
+        while (entry != null && entry.getKey() <= (long) requiredBytes * MAX_OVERSIZE) {
+            ArrayDeque<Bitmap> bucket = entry.getValue();
+            Bitmap bitmap = bucket.pollFirst();
+            if (bucket.isEmpty()) buckets.remove(entry.getKey());
+            if (bitmap != null) {
+                pooledBytes -= entry.getKey();
+                if (!bitmap.isRecycled()) {
+                    reuses++;
+                    return bitmap;
+                }
+            }
+            entry = buckets.ceilingEntry(requiredBytes);
+        }
+        return null;
+    }
+
+    /**
+     * Offer a bitmap that nothing references any more (not on screen, not cached). Bitmaps that
+     * cannot be reused or do not fit in the pool are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > maxBytes) {
+            drop(bitmap);
+            return;
+        }
+        // Make room by dropping the largest pooled bitmaps first
+        while (pooledBytes + size > maxBytes && !buckets.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> largest = buckets.lastEntry();
+            Bitmap victim = largest.getValue().pollFirst();
+            if (largest.getValue().isEmpty()) buckets.remove(largest.getKey());
+            if (victim != null) {
+                pooledBytes -= largest.getKey();
+                drop(victim);
+            }
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        pooledBytes += size;
+        returned++;
+    }
+
+    private void drop(Bitmap bitmap) {
+        dropped++;
+        try { bitmap.recycle(); } catch (Exception ignored) {}
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /** Recycle pooled bitmaps, largest first, until at most keepBytes remain. Returns bytes released. */
+    public synchronized long trimToSize(long keepBytes) {
+        long before = pooledBytes;
+        while (pooledBytes > keepBytes && !buckets.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> largest = buckets.lastEntry();
+            Bitmap victim = largest.getValue().pollFirst();
+            if (largest.getValue().isEmpty()) buckets.remove(largest.getKey());
+            if (victim != null) {
+                pooledBytes -= largest.getKey();
+                drop(victim);
+            }
+        }
+        return before - pooledBytes;
+    }
+
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> bucket : buckets.values()) {
+            for (Bitmap bitmap : bucket) {
+                try { bitmap.recycle(); } catch (Exception ignored) {}
+            }
+        }
+        buckets.clear();
+        pooledBytes = 0;
+    }
+
+    public synchronized String stats() {
+        int rate = requests > 0 ? reuses * 100 / requests : 0;
+        return "pool reuse " + reuses + "/" + requests + " (" + rate + "%), " + returned + " returned, "
+            + dropped + " dropped, " + (pooledBytes / 1024) + "KB pooled";
+    }
+}
@@ -0,0 +1,169 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * Sizes BitmapLoader decodes from the bounds pass before anything is allocated. A plan is the
+ * inSampleSize/density settings that fit the image to the target; it is then checked against
+ * the live heap budget (VM maximum minus what is in use, less a reservation for ExoPlayer
+ * buffers and view drawing) and shrunk by further powers of two until the decode fits. An image
+ * that cannot fit even at thumbnail size is refused up front instead of failing with an
+ * OutOfMemoryError halfway through the decode.
+ *
+ * Planned and actual bytes are tracked so the plan's accuracy shows up in the loader stats.
+ */
+public class DecodePlanner {
+    // Kept free for the player, the view hierarchy and the rest of the app
+    private static final int RESERVE_DIVISOR = 8;
+    // Smallest longer side a plan may shrink to before the image is refused
+    private static final int MIN_EDGE = 64;
+
+    private volatile boolean exactSize = true;
+    private int decodes = 0;
+    private long plannedBytes = 0;
+    private long actualBytes = 0;
+    private int shrunk = 0;
+    private int refused = 0;
+    private int outOfMemory = 0;
+
+    /** With false, plans stop at the power-of-two sample size and the view scales the rest. */
+    public void setExactSize(boolean exactSize) {
+        this.exactSize = exactSize;
+    }
+
+    /**
+     * Choose how to reach the target from the bounds in options. The power-of-two inSampleSize
+     * is cheap inside the decoder, so it goes as far as it can without dropping below the
+     * fitCenter size; the density ratio then scales the remaining factor so the bitmap comes
+     * out at exactly the fitted size, never larger than the screen and never upscaled.
+     * Returns the planned bitmap size in bytes.
+     */
+    public int plan(BitmapFactory.Options options, int targetW, int targetH) {
+        options.inScaled = false;
+        options.inDensity = 0;
+        options.inTargetDensity = 0;
+        options.inScreenDensity = 0;
+        if (!exactSize || options.outWidth <= 0 || options.outHeight <= 0) {
+            options.inSampleSize = calculateInSampleSize(options, targetW, targetH);
+            return plannedByteCount(options);
+        }
+        float scale = Math.min(1f, Math.min((float) targetW / options.outWidth, (float) targetH / options.outHeight));
+        int fitW = Math.max(1, Math.round(options.outWidth * scale));
+        int fitH = Math.max(1, Math.round(options.outHeight * scale));
+        options.inSampleSize = calculateInSampleSize(options, fitW, fitH);
+        applyDensityScale(options, fitW);
+        return plannedByteCount(options);
+    }
+
+    /**
+     * Shrink the plan until its peak heap use fits the budget. reusedBytes is the allocation
+     * size of the inBitmap the decode will draw into (0 if none); a decode into a reused bitmap
+     * only needs the intermediate, if any. Returns false if the image cannot fit at all.
+     */
+    public boolean fitToBudget(BitmapFactory.Options options, int reusedBytes) {
+        long budget = currentBudget();
+        boolean wasShrunk = false;
+        while (peakBytes(options, reusedBytes) > budget) {
+            int sample = options.inSampleSize;
+            if (Math.max(options.outWidth, options.outHeight) / (sample * 2) < MIN_EDGE) {
+                synchronized (this) {
+                    refused++;
+                }
+                return false;
+            }
+            int fitW = options.inScaled ? options.inTargetDensity : (options.outWidth + sample - 1) / sample;
+            options.inSampleSize = sample * 2;
+            // Keep the exact target if the smaller sample still covers it, otherwise take the sample as is
+            applyDensityScale(options, fitW);
+            wasShrunk = true;
+        }
+        if (wasShrunk) {
+            synchronized (this) {
+                shrunk++;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void recordDecode(int planned, int actual) {
+        decodes++;
+        plannedBytes += planned;
+        actualBytes += actual;
+    }
+
+    public synchronized void recordOutOfMemory() {
+        outOfMemory++;
+    }
+
+    public synchronized String stats() {
+        return "decode plans " + decodes + " (planned " + (plannedBytes / 1024) + "KB, actual "
+            + (actualBytes / 1024) + "KB), " + shrunk + " shrunk for budget, " + refused + " refused, "
+            + outOfMemory + " OOM";
+    }
+
+    // VM maximum minus the live heap and the reservation
+    static long currentBudget() {
+        Runtime rt = Runtime.getRuntime();
+        long used = rt.totalMemory() - rt.freeMemory();
+        return rt.maxMemory() - used - rt.maxMemory() / RESERVE_DIVISOR;
+    }
+
+    // Final bitmap (unless it lands in a reused one) plus the sampled intermediate when scaling
+    private static long peakBytes(BitmapFactory.Options options, int reusedBytes) {
+        int planned = plannedByteCount(options);
+        long peak = reusedBytes >= planned ? 0 : planned;
+        if (options.inScaled && reusedBytes < planned) peak += sampledByteCount(options);
+        return peak;
+    }
+
+    // Scale the sampled width down to fitW; the height follows the same ratio
+    private static void applyDensityScale(BitmapFactory.Options options, int fitW) {
+        int sampledW = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        if (sampledW > fitW) {
+            options.inScaled = true;
+            options.inDensity = sampledW;
+            options.inTargetDensity = fitW;
+        } else {
+            options.inScaled = false;
+            options.inDensity = 0;
+            options.inTargetDensity = 0;
+        }
+    }
+
+    // RGB_565 bytes after sampling only; sampled sizes round up like the JPEG decoder does
+    private static long sampledByteCount(BitmapFactory.Options options) {
+        int sample = Math.max(1, options.inSampleSize);
+        long w = (options.outWidth + sample - 1) / sample;
+        long h = (options.outHeight + sample - 1) / sample;
+        return Math.max(1, w * h * 2);
+    }
+
+    /** RGB_565 bytes of the planned decode, including the density scaling. */
+    public static int plannedByteCount(BitmapFactory.Options options) {
+        int sample = Math.max(1, options.inSampleSize);
+        long w = (options.outWidth + sample - 1) / sample;
+        long h = (options.outHeight + sample - 1) / sample;
+        if (options.inScaled && options.inDensity > 0) {
+            float ratio = (float) options.inTargetDensity / options.inDensity;
+            w = (long) (w * ratio + 0.5f);
+            h = (long) (h * ratio + 0.5f);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, w * h * 2));
+    }
+
+    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        int height = options.outHeight;
+        int width = options.outWidth;
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+            int halfHeight = height / 2;
+            int halfWidth = width / 2;
+
+            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,81 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.widget.ImageView;
+
+import java.io.File;
+
+/**
+ * EXIF orientation helpers. Bitmaps are kept as stored in the file and turned upright by the
+ * ImageView's matrix at draw time, so showing a portrait photo costs no rotated copy.
+ */
+public final class ImageOrientation {
+    private ImageOrientation() {}
+
+    public static int read(File file) {
+        try {
+            return new ExifInterface(file.getAbsolutePath())
+                .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (Exception e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /** True for the quarter-turn orientations, where width and height swap on screen. */
+    public static boolean isTransposed(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_TRANSPOSE
+            || orientation == ExifInterface.ORIENTATION_ROTATE_90
+            || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+            || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    public static boolean isNormal(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_NORMAL || orientation == ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    /**
+     * Matrix that turns a bitmap of the given size upright and fits it centered into the view,
+     * the oriented equivalent of ScaleType.FIT_CENTER.
+     */
+    public static Matrix fitMatrix(int orientation, int bitmapW, int bitmapH, int viewW, int viewH) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL: matrix.setScale(-1, 1); break;
+            case ExifInterface.ORIENTATION_ROTATE_180: matrix.setRotate(180); break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL: matrix.setScale(1, -1); break;
+            case ExifInterface.ORIENTATION_TRANSPOSE: matrix.setRotate(90); matrix.postScale(-1, 1); break;
+            case ExifInterface.ORIENTATION_ROTATE_90: matrix.setRotate(90); break;
+            case ExifInterface.ORIENTATION_TRANSVERSE: matrix.setRotate(-90); matrix.postScale(-1, 1); break;
+            case ExifInterface.ORIENTATION_ROTATE_270: matrix.setRotate(-90); break;
+            default: break;
+        }
+        // Move the turned image back to the origin, then scale and center it like fitCenter
+        RectF mapped = new RectF(0, 0, bitmapW, bitmapH);
+        matrix.mapRect(mapped);
+        matrix.postTranslate(-mapped.left, -mapped.top);
+        float scale = Math.min((float) viewW / mapped.width(), (float) viewH / mapped.height());
+        matrix.postScale(scale, scale);
+        matrix.postTranslate((viewW - mapped.width() * scale) / 2f, (viewH - mapped.height() * scale) / 2f);
+        return matrix;
+    }
+
+    /**
+     * Show the bitmap upright in the view. Upright images keep plain fitCenter; others switch
+     * the view to a matrix. fallbackW/H are used while the view has not been laid out yet.
+     */
+    public static void apply(ImageView view, Bitmap bitmap, int orientation, int fallbackW, int fallbackH) {
+        if (bitmap == null || isNormal(orientation)) {
+            view.setScaleType(ImageView.ScaleType.FIT_CENTER);
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        int viewW = view.getWidth() > 0 ? view.getWidth() : fallbackW;
+        int viewH = view.getHeight() > 0 ? view.getHeight() : fallbackH;
+        view.setScaleType(ImageView.ScaleType.MATRIX);
+        view.setImageMatrix(fitMatrix(orientation, bitmap.getWidth(), bitmap.getHeight(), viewW, viewH));
+        view.setImageBitmap(bitmap);
+    }
+}
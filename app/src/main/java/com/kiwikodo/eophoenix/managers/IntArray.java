@@ -0,0 +1,86 @@
+package com.kiwikodo.eophoenix.managers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Growable list of primitive ints. Used for catalog slot lists and the slideshow play order so
+ * large libraries do not pay for an Integer object per entry.
+ */
+public class IntArray {
+    private int[] values;
+    private int size;
+
+    public IntArray() {
+        this(16);
+    }
+
+    public IntArray(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        values[index] = value;
+    }
+
+    public void add(int value) {
+        ensureCapacity(size + 1);
+        values[size++] = value;
+    }
+
+    public void insert(int index, int value) {
+        if (index < 0 || index > size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        ensureCapacity(size + 1);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+
+    public int removeAt(int index) {
+        int value = get(index);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return value;
+    }
+
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Fisher-Yates over the used range
+    public void shuffle(Random random) {
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.kiwikodo.eophoenix.managers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact in-memory catalog of playable media, stored as columns instead of one object per file.
+ * Each file gets a stable slot: its folder is an index into a shared (interned) folder table, its
+ * name is kept once, and type, dimensions and duration live in primitive arrays. Lookups by path
+ * go through an open-addressing table of slot numbers, so there is no boxing and no per-entry
+ * map node.
+ *
+ * Removed files leave a tombstone; their slot is reused if the same path comes back, so slot
+ * numbers held by the slideshow stay valid until clear() starts a new generation.
+ */
+public class MediaCatalog implements MediaCatalogView {
+    private static final byte TYPE_REMOVED = 0;
+    private static final byte TYPE_IMAGE = 1;
+    private static final byte TYPE_VIDEO = 2;
+    // Counted with the images
+    private static final byte TYPE_ANIMATED = 3;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Folder table: each distinct parent path is stored once and referenced by id
+    private final ArrayList<String> dirs = new ArrayList<>();
+    private final HashMap<String, Integer> dirIds = new HashMap<>();
+
+    private int[] dirOf;
+    private String[] names;
+    private byte[] types;
+    private int[] widths;
+    private int[] heights;
+    private int[] durations;
+    // Full probe results are only kept for videos; playback needs codec, rotation and size
+    private MediaIndex.Entry[] videoMeta;
+    // slot + 1 per bucket, 0 = empty; length is a power of two kept at most half full
+    private int[] buckets;
+
+    private int slotCount;
+    private int imageCount;
+    private int videoCount;
+    private int generation;
+
+    public MediaCatalog() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        dirOf = new int[capacity];
+        names = new String[capacity];
+        types = new byte[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+        durations = new int[capacity];
+        videoMeta = new MediaIndex.Entry[capacity];
+        buckets = new int[capacity * 2];
+    }
+
+    /**
+     * Add a file, or revive its slot if it was removed earlier. Returns the slot, or -1 if the
+     * path is already live in the catalog.
+     */
+    public synchronized int add(File file, MediaManager.MediaType type, MediaIndex.Entry metadata) {
+        String dir = file.getParent();
+        if (dir == null) dir = "";
+        String name = file.getName();
+        int dirId = internDir(dir);
+        int slot = findAny(dirId, name);
+        if (slot >= 0) {
+            if (types[slot] != TYPE_REMOVED) return -1;
+        } else {
+            if (slotCount == types.length) grow();
+            slot = slotCount++;
+            dirOf[slot] = dirId;
+            names[slot] = name;
+            insertBucket(slot);
+        }
+        boolean video = type == MediaManager.MediaType.VIDEO;
+        types[slot] = video ? TYPE_VIDEO : (type == MediaManager.MediaType.ANIMATED ? TYPE_ANIMATED : TYPE_IMAGE);
+        widths[slot] = metadata != null ? metadata.width : 0;
+        heights[slot] = metadata != null ? metadata.height : 0;
+        durations[slot] = metadata != null ? (int) Math.min(metadata.durationMs, Integer.MAX_VALUE) : 0;
+        videoMeta[slot] = video ? metadata : null;
+        if (video) videoCount++; else imageCount++;
+        return slot;
+    }
+
+    public synchronized int add(MediaManager.MediaFile mediaFile) {
+        return add(mediaFile.getFile(), mediaFile.getType(), mediaFile.getMetadata());
+    }
+
+    /** Remove the entry with this path. Returns its slot, or -1 if it was not live. */
+    public synchronized int remove(String path) {
+        int slot = findSlot(path);
+        if (slot >= 0) tombstone(slot);
+        return slot;
+    }
+
+    /** Remove every live entry below the given folder, appending their slots to removed. */
+    public synchronized void removeUnder(String dirPath, IntArray removed) {
+        String prefix = dirPath + File.separator;
+        boolean[] matches = new boolean[dirs.size()];
+        for (int d = 0; d < matches.length; d++) {
+            String dir = dirs.get(d);
+            matches[d] = dir.equals(dirPath) || dir.startsWith(prefix);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (types[slot] != TYPE_REMOVED && matches[dirOf[slot]]) {
+                tombstone(slot);
+                removed.add(slot);
+            }
+        }
+    }
+
+    /** Drop everything. Slot numbers from before the call become meaningless. */
+    public synchronized void clear() {
+        dirs.clear();
+        dirIds.clear();
+        allocate(INITIAL_CAPACITY);
+        slotCount = 0;
+        imageCount = 0;
+        videoCount = 0;
+        generation++;
+    }
+
+    @Override
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public synchronized int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public synchronized int size() {
+        return imageCount + videoCount;
+    }
+
+    @Override
+    public synchronized int getImageCount() {
+        return imageCount;
+    }
+
+    @Override
+    public synchronized int getVideoCount() {
+        return videoCount;
+    }
+
+    @Override
+    public synchronized boolean isLive(int slot) {
+        return slot >= 0 && slot < slotCount && types[slot] != TYPE_REMOVED;
+    }
+
+    @Override
+    public synchronized MediaManager.MediaType getType(int slot) {
+        if (!isLive(slot)) return null;
+        if (types[slot] == TYPE_VIDEO) return MediaManager.MediaType.VIDEO;
+        return types[slot] == TYPE_ANIMATED ? MediaManager.MediaType.ANIMATED : MediaManager.MediaType.IMAGE;
+    }
+
+    @Override
+    public synchronized int getWidth(int slot) {
+        return isLive(slot) ? widths[slot] : 0;
+    }
+
+    @Override
+    public synchronized int getHeight(int slot) {
+        return isLive(slot) ? heights[slot] : 0;
+    }
+
+    @Override
+    public synchronized int getDurationMs(int slot) {
+        return isLive(slot) ? durations[slot] : 0;
+    }
+
+    @Override
+    public synchronized String getName(int slot) {
+        return slot >= 0 && slot < slotCount ? names[slot] : null;
+    }
+
+    @Override
+    public synchronized String getPath(int slot) {
+        if (slot < 0 || slot >= slotCount) return null;
+        return dirs.get(dirOf[slot]) + File.separator + names[slot];
+    }
+
+    @Override
+    public synchronized int findSlot(String path) {
+        int sep = path.lastIndexOf(File.separatorChar);
+        Integer dirId = dirIds.get(sep >= 0 ? path.substring(0, sep) : "");
+        if (dirId == null) return -1;
+        int slot = findAny(dirId, path.substring(sep + 1));
+        return slot >= 0 && types[slot] != TYPE_REMOVED ? slot : -1;
+    }
+
+    @Override
+    public synchronized MediaManager.MediaFile get(int slot) {
+        MediaManager.MediaType type = getType(slot);
+        if (type == null) return null;
+        return new MediaManager.MediaFile(new File(getPath(slot)), type, videoMeta[slot]);
+    }
+
+    @Override
+    public synchronized void copyLiveSlots(IntArray out) {
+        out.clear();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (types[slot] != TYPE_REMOVED) out.add(slot);
+        }
+    }
+
+    private void tombstone(int slot) {
+        if (types[slot] == TYPE_VIDEO) videoCount--; else imageCount--;
+        types[slot] = TYPE_REMOVED;
+        videoMeta[slot] = null;
+    }
+
+    private int internDir(String dir) {
+        Integer id = dirIds.get(dir);
+        if (id != null) return id;
+        int newId = dirs.size();
+        dirs.add(dir);
+        dirIds.put(dir, newId);
+        return newId;
+    }
+
+    private static int hash(int dirId, String name) {
+        int h = dirId * 31 + name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // Slot for this folder/name including removed slots, or -1
+    private int findAny(int dirId, String name) {
+        int mask = buckets.length - 1;
+        for (int i = hash(dirId, name) & mask; buckets[i] != 0; i = (i + 1) & mask) {
+            int slot = buckets[i] - 1;
+            if (dirOf[slot] == dirId && names[slot].equals(name)) return slot;
+        }
+        return -1;
+    }
+
+    private void insertBucket(int slot) {
+        int mask = buckets.length - 1;
+        int i = hash(dirOf[slot], names[slot]) & mask;
+        while (buckets[i] != 0) i = (i + 1) & mask;
+        buckets[i] = slot + 1;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        dirOf = Arrays.copyOf(dirOf, capacity);
+        names = Arrays.copyOf(names, capacity);
+        types = Arrays.copyOf(types, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        videoMeta = Arrays.copyOf(videoMeta, capacity);
+        buckets = new int[capacity * 2];
+        for (int slot = 0; slot < slotCount; slot++) {
+            insertBucket(slot);
+        }
+    }
+}
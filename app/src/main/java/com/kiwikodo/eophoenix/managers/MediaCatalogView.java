@@ -0,0 +1,43 @@
+package com.kiwikodo.eophoenix.managers;
+
+/**
+ * Read-only access for the slideshow. Reading never copies the catalog; MediaFile objects are
+ * only created for the single slot that is about to be shown.
+ */
+public interface MediaCatalogView {
+    /** Changes whenever clear() invalidates all slot numbers. */
+    int getGeneration();
+
+    /** Upper bound (exclusive) for slot numbers, including removed slots. */
+    int slotCount();
+
+    /** Number of live entries. */
+    int size();
+
+    int getImageCount();
+
+    int getVideoCount();
+
+    boolean isLive(int slot);
+
+    MediaManager.MediaType getType(int slot);
+
+    int getWidth(int slot);
+
+    int getHeight(int slot);
+
+    int getDurationMs(int slot);
+
+    String getName(int slot);
+
+    String getPath(int slot);
+
+    /** Slot of a live entry with this absolute path, or -1. */
+    int findSlot(String path);
+
+    /** A MediaFile for one live slot, or null if the slot was removed. */
+    MediaManager.MediaFile get(int slot);
+
+    /** Replace the contents of out with every live slot in catalog order. */
+    void copyLiveSlots(IntArray out);
+}
@@ -0,0 +1,142 @@
+package com.kiwikodo.eophoenix.managers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decides whether a file is media we can play. The extension lookup runs for every file of a
+ * scan, so it compares against a static table in place instead of building strings or lists.
+ * Header sniffing reads the first bytes of new or changed files so that renamed, truncated or
+ * corrupt files are rejected at index time rather than failing in BitmapLoader or ExoPlayer.
+ */
+public final class MediaClassifier {
+    public enum Format {
+        JPEG(MediaManager.MediaType.IMAGE),
+        PNG(MediaManager.MediaType.IMAGE),
+        GIF(MediaManager.MediaType.ANIMATED),
+        BMP(MediaManager.MediaType.IMAGE),
+        WEBP(MediaManager.MediaType.IMAGE),
+        ISO_BMFF(MediaManager.MediaType.VIDEO), // mp4, m4v, mov, 3gp
+        MATROSKA(MediaManager.MediaType.VIDEO), // mkv, webm
+        MPEG_TS(MediaManager.MediaType.VIDEO),
+        MPEG_PS(MediaManager.MediaType.VIDEO);
+
+        public final MediaManager.MediaType type;
+
+        Format(MediaManager.MediaType type) {
+            this.type = type;
+        }
+    }
+
+    // Parallel tables; only formats BitmapFactory or ExoPlayer can actually decode
+    private static final String[] EXTENSIONS = {
+        "jpg", "jpeg", "jpe", "png", "gif", "bmp", "webp",
+        "mp4", "m4v", "mov", "3gp", "3g2", "mkv", "webm", "ts", "mpg", "mpeg"
+    };
+    private static final Format[] EXTENSION_FORMATS = {
+        Format.JPEG, Format.JPEG, Format.JPEG, Format.PNG, Format.GIF, Format.BMP, Format.WEBP,
+        Format.ISO_BMFF, Format.ISO_BMFF, Format.ISO_BMFF, Format.ISO_BMFF, Format.ISO_BMFF,
+        Format.MATROSKA, Format.MATROSKA, Format.MPEG_TS, Format.MPEG_PS, Format.MPEG_PS
+    };
+
+    private static final int TS_PACKET_BYTES = 188;
+    // Enough for the sync byte of the first three transport stream packets; still a single block read
+    private static final int HEADER_BYTES = 2 * TS_PACKET_BYTES + 1;
+    // BITMAPCOREHEADER, BITMAPINFOHEADER, the two Adobe variants, OS/2 2.x, BITMAPV4HEADER, BITMAPV5HEADER
+    private static final int[] BMP_DIB_HEADER_SIZES = { 12, 40, 52, 56, 64, 108, 124 };
+    // Scan and prober threads sniff concurrently; each reuses its own header buffer
+    private static final ThreadLocal<byte[]> HEADER_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HEADER_BYTES];
+        }
+    };
+
+    private MediaClassifier() {}
+
+    /** Format implied by the file name's extension, or null if it is not a media extension. */
+    public static Format formatForName(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) return null;
+        int extLength = name.length() - dot - 1;
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            String ext = EXTENSIONS[i];
+            if (ext.length() == extLength && name.regionMatches(true, dot + 1, ext, 0, extLength)) {
+                return EXTENSION_FORMATS[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Identify the container from the file's magic bytes. Returns null when the header matches
+     * no supported format; throws when the file cannot be read, which callers should treat as a
+     * transient error rather than a verdict on the content.
+     */
+    public static Format sniff(File file) throws IOException {
+        byte[] h = HEADER_BUFFER.get();
+        int n = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            while (n < HEADER_BYTES) {
+                int read = in.read(h, n, HEADER_BYTES - n);
+                if (read < 0) break;
+                n += read;
+            }
+        } finally {
+            try { in.close(); } catch (Exception ignored) {}
+        }
+        return sniffHeader(h, n);
+    }
+
+    static Format sniffHeader(byte[] h, int n) {
+        if (n >= 3 && u(h, 0) == 0xFF && u(h, 1) == 0xD8 && u(h, 2) == 0xFF) return Format.JPEG;
+        if (n >= 8 && u(h, 0) == 0x89 && ascii(h, 1, "PNG") && u(h, 4) == 0x0D && u(h, 5) == 0x0A
+                && u(h, 6) == 0x1A && u(h, 7) == 0x0A) {
+            return Format.PNG;
+        }
+        if (n >= 6 && (ascii(h, 0, "GIF87a") || ascii(h, 0, "GIF89a"))) return Format.GIF;
+        if (n >= 12 && ascii(h, 0, "RIFF") && ascii(h, 8, "WEBP")) return Format.WEBP;
+        if (n >= 18 && ascii(h, 0, "BM") && isBmpDibHeaderSize(le32(h, 14))) return Format.BMP;
+        if (n >= 4 && u(h, 0) == 0x1A && u(h, 1) == 0x45 && u(h, 2) == 0xDF && u(h, 3) == 0xA3) return Format.MATROSKA;
+        if (n >= 8) {
+            // ISO base media: a box size followed by the box type. Most files start with ftyp;
+            // older QuickTime files may start with other top-level atoms.
+            if (ascii(h, 4, "ftyp") || ascii(h, 4, "moov") || ascii(h, 4, "mdat") || ascii(h, 4, "wide")
+                    || ascii(h, 4, "free") || ascii(h, 4, "skip") || ascii(h, 4, "pnot")) {
+                return Format.ISO_BMFF;
+            }
+        }
+        if (n >= 4 && u(h, 0) == 0x00 && u(h, 1) == 0x00 && u(h, 2) == 0x01 && u(h, 3) == 0xBA) return Format.MPEG_PS;
+        // A single 'G' is just text; a transport stream repeats the sync byte every packet
+        if (n >= HEADER_BYTES && u(h, 0) == 0x47 && u(h, TS_PACKET_BYTES) == 0x47
+                && u(h, 2 * TS_PACKET_BYTES) == 0x47) {
+            return Format.MPEG_TS;
+        }
+        return null;
+    }
+
+    private static boolean isBmpDibHeaderSize(long size) {
+        for (int known : BMP_DIB_HEADER_SIZES) {
+            if (size == known) return true;
+        }
+        return false;
+    }
+
+    private static long le32(byte[] h, int i) {
+        return u(h, i) | (u(h, i + 1) << 8) | (u(h, i + 2) << 16) | ((long) u(h, i + 3) << 24);
+    }
+
+    private static int u(byte[] h, int i) {
+        return h[i] & 0xFF;
+    }
+
+    private static boolean ascii(byte[] h, int offset, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (h[offset + i] != (byte) s.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,216 @@
+package com.kiwikodo.eophoenix.managers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of scanned media stored under the EoPhoenix directory.
+ * Entries are keyed by absolute path and are only trusted while the file's size and
+ * lastModified still match, so a rescan only needs to stat files and re-probe the ones
+ * that changed. Stored as a small tab-separated text file to keep load/save cheap on KitKat.
+ *
+ * This is also the single metadata cache for playback: each MediaFile carries its entry, so
+ * SlideshowManager reads resolution, duration, rotation, codec and bitrate from memory instead
+ * of opening a MediaMetadataRetriever on the UI thread.
+ */
+public class MediaIndex {
+    public static final String INDEX_FILENAME = "media_index.tsv";
+    private static final String HEADER = "#EoPhoenixMediaIndex";
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * One indexed file. Fields are filled in before the entry is put; once it is in the index,
+     * change it only through the index's setters, which hold the lock save() writes under.
+     */
+    public static class Entry {
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public MediaManager.MediaType type; // null when the content was rejected as non-media
+        public int width;
+        public int height;
+        public long durationMs;
+        public int rotationDegrees;
+        public String codecMime; // e.g. video/avc; null when unknown
+        public int bitrate; // bits per second, 0 when unknown
+        public String skipReason; // null when the file is playable; also set for rejected content
+
+        public Entry(String path, long size, long lastModified, MediaManager.MediaType type) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.type = type;
+        }
+
+        boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    private final File indexFile;
+    private final LogManager logManager;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty = false;
+
+    public MediaIndex(File eoPhoenixDir, LogManager logManager) {
+        this.indexFile = new File(eoPhoenixDir, INDEX_FILENAME);
+        this.logManager = logManager;
+    }
+
+    /**
+     * Load the index from disk. A missing, unreadable or older-format index simply yields an
+     * empty index; the next scan re-probes everything and rewrites it.
+     */
+    public synchronized void load() {
+        entries.clear();
+        dirty = false;
+        if (!indexFile.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(indexFile));
+            String header = reader.readLine();
+            if (header == null || !header.equals(HEADER + "\t" + FORMAT_VERSION)) {
+                logManager.addLog("Media index format changed - rebuilding");
+                dirty = true;
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry e = parseLine(line);
+                if (e != null) entries.put(e.path, e);
+            }
+        } catch (Exception e) {
+            logManager.addLog("Error reading media index: " + e.getMessage());
+            entries.clear();
+            dirty = true;
+        } finally {
+            try { if (reader != null) reader.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Returns the cached entry for this file if its size and lastModified are unchanged, else null.
+     */
+    public synchronized Entry lookup(File file, long size, long lastModified) {
+        Entry e = entries.get(file.getAbsolutePath());
+        if (e != null && e.matches(size, lastModified)) return e;
+        return null;
+    }
+
+    public synchronized void put(Entry entry) {
+        // Paths containing our field/record separators cannot be stored; they are simply re-probed
+        if (entry == null || entry.path.indexOf('\t') >= 0 || entry.path.indexOf('\n') >= 0) return;
+        entries.put(entry.path, entry);
+        dirty = true;
+    }
+
+    public synchronized void setType(Entry entry, MediaManager.MediaType type) {
+        entry.type = type;
+        dirty = true;
+    }
+
+    public synchronized void setSkipReason(Entry entry, String skipReason) {
+        entry.skipReason = skipReason;
+        dirty = true;
+    }
+
+    /**
+     * Drop entries under the given directory that were not seen during the latest scan.
+     * Entries belonging to other folders are kept so switching folders does not lose them.
+     */
+    public synchronized int prune(File dir, Set<String> seenPaths) {
+        String prefix = dir.getAbsolutePath() + File.separator;
+        int removed = 0;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            String path = it.next().getKey();
+            if (path.startsWith(prefix) && !seenPaths.contains(path)) {
+                it.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) dirty = true;
+        return removed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write the index back to disk if anything changed. Writes to a temp file first so a
+     * card pulled mid-write leaves the previous index intact.
+     */
+    public synchronized void save() {
+        if (!dirty) return;
+        File tmp = new File(indexFile.getParentFile(), INDEX_FILENAME + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmp, false));
+            writer.write(HEADER + "\t" + FORMAT_VERSION);
+            writer.newLine();
+            for (Entry e : entries.values()) {
+                writer.write(formatLine(e));
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(indexFile)) {
+                // Some SD filesystems refuse to rename over an existing file
+                indexFile.delete();
+                if (!tmp.renameTo(indexFile)) {
+                    logManager.addLog("Error saving media index: rename failed");
+                    return;
+                }
+            }
+            dirty = false;
+        } catch (Exception e) {
+            logManager.addLog("Error saving media index: " + e.getMessage());
+        } finally {
+            try { if (writer != null) writer.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    private static String formatLine(Entry e) {
+        StringBuilder sb = new StringBuilder(e.path.length() + 64);
+        sb.append(e.path).append('\t')
+            .append(e.size).append('\t')
+            .append(e.lastModified).append('\t')
+            .append(e.type != null ? e.type.name() : "").append('\t')
+            .append(e.width).append('\t')
+            .append(e.height).append('\t')
+            .append(e.durationMs).append('\t')
+            .append(e.rotationDegrees).append('\t')
+            .append(e.codecMime != null ? e.codecMime : "").append('\t')
+            .append(e.bitrate).append('\t')
+            .append(e.skipReason != null ? e.skipReason.replace('\t', ' ').replace('\n', ' ') : "");
+        return sb.toString();
+    }
+
+    private static Entry parseLine(String line) {
+        try {
+            String[] f = line.split("\t", -1);
+            if (f.length < 11) return null;
+            MediaManager.MediaType type = f[3].isEmpty() ? null : MediaManager.MediaType.valueOf(f[3]);
+            Entry e = new Entry(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]), type);
+            e.width = Integer.parseInt(f[4]);
+            e.height = Integer.parseInt(f[5]);
+            e.durationMs = Long.parseLong(f[6]);
+            e.rotationDegrees = Integer.parseInt(f[7]);
+            e.codecMime = f[8].isEmpty() ? null : f[8];
+            e.bitrate = Integer.parseInt(f[9]);
+            e.skipReason = f[10].isEmpty() ? null : f[10];
+            return e;
+        } catch (Exception ignored) {
+            // Corrupt or unknown line - ignore it so the file is simply re-probed
+            return null;
+        }
+    }
+}
@@ -1,28 +1,90 @@
-
 package com.kiwikodo.eophoenix.managers;
 
 import android.content.Context;
-import android.webkit.MimeTypeMap;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import com.kiwikodo.eophoenix.R;
 import com.kiwikodo.eophoenix.Settings;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MediaManager {
+    // Quiet period after the last folder event before the catalog diff is applied
+    private static final long WATCH_DEBOUNCE_MS = 2000;
+    // Longest the caller (the UI thread) waits for the first batch; a slow card keeps scanning behind it
+    private static final long SCAN_READY_TIMEOUT_MS = 3000;
+    // Streaming scan: how often progress is reported and new videos are handed to the prober
+    private static final int PROGRESS_EVERY_FILES = 250;
+    private static final int PROBE_BATCH_SIZE = 32;
+    private static final int MAX_PUBLISH_BATCH = 200;
+    // inotify watches are a shared kernel resource; deep libraries only watch this many folders
+    private static final int MAX_WATCHED_FOLDERS = 512;
+    private static final long INDEX_SAVE_DELAY_MS = 5000;
+    private static final int WATCH_MASK = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.MODIFY
+        | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+        | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    /**
+     * Receives incremental catalog changes from the streaming scan, the background prober and
+     * the folder watcher, as catalog slots. Always called on the main thread. A diff whose
+     * generation no longer matches the catalog predates a rescan and must be ignored.
+     */
+    public interface MediaChangeListener {
+        void onMediaChanged(int generation, IntArray addedSlots, IntArray removedSlots);
+    }
+
     private final Context context;
     private final LogManager logManager;
     private final UIManager uiManager;
     private final SettingsManager settingsManager;
     private final StorageManager storageManager;
     
-    private List<MediaFile> mediaFiles = new ArrayList<>();
-    private int imageCount = 0;
-    private int videoCount = 0;
+    // Live catalog: synchronized internally since the scan and watcher threads mutate it
+    private final MediaCatalog catalog = new MediaCatalog();
+    private MediaIndex mediaIndex;
+    private File indexDir;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MediaChangeListener mediaChangeListener;
+    private final Map<String, MediaFolderObserver> folderObservers = new HashMap<>();
+    // Folders left unwatched because of MAX_WATCHED_FOLDERS, and how many of them were logged (guarded by folderObservers)
+    private int unwatchedFolders = 0;
+    private int unwatchedReported = 0;
+    private HandlerThread watchThread;
+    private Handler watchHandler;
+    private volatile File watchedDir;
+    private MediaWalker watchFilter;
+    private final Set<String> pendingChanges = new HashSet<>();
+    private final Runnable applyPendingChangesRunnable = this::applyPendingChanges;
+    private final Runnable saveIndexRunnable = this::saveIndex;
+    private MediaProber mediaProber;
+    private volatile VideoPosters videoPosters;
+    private int skippedCount = 0;
+    private MediaWalker activeWalker;
+    private int scanGeneration = 0;
 
-    public List<MediaFile> getMediaFiles() {
-        return new ArrayList<>(mediaFiles);
+    /**
+     * Read-only view of the live catalog. It is not a copy: it reflects later scan and watcher
+     * changes, which are also announced through the MediaChangeListener.
+     */
+    public MediaCatalogView getCatalog() {
+        return catalog;
     }
 
     public MediaManager(Context context, LogManager logManager, UIManager uiManager, SettingsManager settingsManager, StorageManager storageManager) {
@@ -32,6 +94,18 @@ public class MediaManager {
         this.settingsManager = settingsManager;
         this.storageManager = storageManager;
     }
+
+    public void setMediaChangeListener(MediaChangeListener listener) {
+        this.mediaChangeListener = listener;
+    }
+
+    /** Extract poster frames for videos probed from now on; null stops it. */
+    public void setVideoPosters(VideoPosters posters) {
+        this.videoPosters = posters;
+        synchronized (this) {
+            if (mediaProber != null) mediaProber.setPosters(posters);
+        }
+    }
     
     public boolean scanMediaDirectory(String sdCardPath, String folderName) {
         try {
@@ -52,148 +126,766 @@ public class MediaManager {
                 return false;
             }
             
-            mediaFiles.clear();
-            imageCount = 0;
-            videoCount = 0;
-            java.util.List<String> skippedVideos = new ArrayList<>();  // Track skipped videos (filenames)
-            
-            File[] files = mediaDir.listFiles();
-            if (files == null || files.length == 0) {
-                logManager.addLog("Error: No media files found in " + folderName);
-                return false;
+            // A full scan replaces whatever the watcher and prober were tracking
+            cancelScan();
+            stopWatching();
+            synchronized (catalog) {
+                catalog.clear();
+                skippedCount = 0;
             }
-            
-            logManager.addLog("Raw file count: " + files.length);
-            
-            // Get settings for video compatibility
+
             Settings current = settingsManager.getCurrentSettings();
-            int maxVideoSizeKB = current != null ? current.getMaxVideoSizeKB() : 0;
-            int maxVideoPixels = current != null ? current.getMaxVideoPixels() : 0;
+            int scanDepth = current != null ? current.getScanDepth() : 0;
+            List<String> includeGlobs = current != null ? current.getIncludeGlobs() : null;
+            List<String> excludeGlobs = current != null ? current.getExcludeGlobs() : null;
+            int initialBatchSize = current != null ? current.getInitialBatchSize() : 50;
+
+            final MediaWalker walker = new MediaWalker(mediaDir, scanDepth, includeGlobs, excludeGlobs);
+            final int generation;
+            synchronized (this) {
+                generation = ++scanGeneration;
+                activeWalker = walker;
+                watchedDir = mediaDir;
+                // Separate instance so cancelling the walk does not disable the watcher's filtering
+                watchFilter = new MediaWalker(mediaDir, scanDepth, includeGlobs, excludeGlobs);
+            }
+            getWatchHandler();
+
+            // The walk continues in the background; we only wait until the first batch is published
+            final ScanProgress progress = new ScanProgress(initialBatchSize);
+            final File scanDir = mediaDir;
+            Thread scanThread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runScan(scanDir, folderName, walker, generation, progress);
+            }, "MediaScan");
+            scanThread.start();
+
+            try {
+                if (!progress.ready.await(SCAN_READY_TIMEOUT_MS, TimeUnit.MILLISECONDS) && isCurrentScan(generation)) {
+                    // Start anyway: the slideshow waits for media and takes the batches as they are published
+                    logManager.addLog("Media scan still running after " + (SCAN_READY_TIMEOUT_MS / 1000)
+                        + "s with " + catalog.size() + " files ready; continuing in the background");
+                    return true;
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return hasMedia();
             
-            for (File file : files) {
-                try {
-                    String mimeType = getMimeType(file.getName());
-                    if (mimeType != null) {
-                        if (mimeType.startsWith("image/")) {
-                            imageCount++;
-                            mediaFiles.add(new MediaFile(file, MediaType.IMAGE));
-                        } else if (mimeType.startsWith("video/")) {
-                            // Check video file size before adding
-                            long fileSizeKB = file.length() / 1024;
-                                if (fileSizeKB > maxVideoSizeKB) {
-                                    logManager.addLog("Warning: Large video skipped: " + file.getName() + 
-                                        " (" + fileSizeKB + "KB > " + maxVideoSizeKB + "KB limit)");
-                                    skippedVideos.add(file.getName());
-                                    continue;
-                                }
-                                // Also perform a quick resolution check now to avoid later playback skips
-                                try {
-                                    android.media.MediaMetadataRetriever retriever = new android.media.MediaMetadataRetriever();
-                                    try {
-                                        retriever.setDataSource(file.getAbsolutePath());
-                                        String wStr = retriever.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
-                                        String hStr = retriever.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
-                                        if (wStr != null && hStr != null && maxVideoPixels > 0) {
-                                            int w = Integer.parseInt(wStr);
-                                            int h = Integer.parseInt(hStr);
-                                            long pixels = (long) w * h;
-                                            if (pixels > maxVideoPixels) {
-                                                logManager.addLog("Warning: High-resolution video skipped: " + file.getName() + " (" + w + "x" + h + ")");
-                                                skippedVideos.add(file.getName());
-                                                continue;
-                                            }
-                                        }
-                                    } finally {
-                                        try { retriever.release(); } catch (Exception ignored) {}
-                                    }
-                                } catch (Exception e) {
-                                    logManager.addLog("Resolution check failed for " + file.getName() + ": " + e.getMessage());
-                                    // If resolution check fails, don't block the file here - let playback handle it
-                                }
-                            videoCount++;
-                            mediaFiles.add(new MediaFile(file, MediaType.VIDEO));
-                        }
+        } catch (Exception e) {
+            logManager.addLog("Media scan failed: " + e.getMessage() +
+                             "\nStack trace: " + Arrays.toString(e.getStackTrace()));
+            return false;
+        }
+    }
+
+    // Shared between the scan thread, the prober callbacks and the waiting caller
+    private static class ScanProgress {
+        final int initialBatchSize;
+        final CountDownLatch ready = new CountDownLatch(1);
+        final AtomicInteger published = new AtomicInteger();
+        final AtomicInteger pendingProbeBatches = new AtomicInteger();
+        final List<String> skippedVideos = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean walkDone = false;
+
+        ScanProgress(int initialBatchSize) {
+            this.initialBatchSize = initialBatchSize;
+        }
+
+        // Release the caller once enough is playable, or once nothing more can become playable
+        void checkReady() {
+            if (published.get() >= initialBatchSize
+                    || (walkDone && (published.get() > 0 || pendingProbeBatches.get() == 0))) {
+                ready.countDown();
+            }
+        }
+    }
+
+    /**
+     * Runs on the MediaScan thread. Files are indexed as the walker finds them and published in
+     * small batches, so memory stays bounded by one directory listing plus the catalog itself and
+     * the slideshow can start on the first batch of a very large library.
+     */
+    private void runScan(final File mediaDir, String folderName, final MediaWalker walker, final int generation,
+                         final ScanProgress progress) {
+        final long scanStart = SystemClock.elapsedRealtime();
+        try {
+            long indexStart = SystemClock.elapsedRealtime();
+            final MediaIndex index = getIndex(mediaDir.getParentFile());
+            long indexLoadMs = SystemClock.elapsedRealtime() - indexStart;
+
+            final Set<String> seenPaths = new HashSet<>();
+            final ScanStats stats = new ScanStats();
+            final List<MediaFile> batch = new ArrayList<>();
+            final List<MediaIndex.Entry> probeQueue = new ArrayList<>();
+            final int publishEvery = Math.max(1, Math.min(progress.initialBatchSize, MAX_PUBLISH_BATCH));
+            final int[] filesVisited = new int[1];
+            final int[] queuedForProbe = new int[1];
+
+            boolean completed = walker.walk(new MediaWalker.Visitor() {
+                @Override
+                public void onDirectory(File dir, int depth) {
+                    watchFolder(dir);
+                }
+
+                @Override
+                public boolean onFile(File file) {
+                    if (!isCurrentScan(generation)) return false;
+                    try {
+                        MediaFile mediaFile = indexMediaFile(file, index, stats, progress.skippedVideos, probeQueue);
+                        if (mediaFile != null || stats.lastWasMedia) seenPaths.add(file.getAbsolutePath());
+                        if (mediaFile != null) batch.add(mediaFile);
+                    } catch (Exception e) {
+                        logManager.addLog("Error processing file: " + file.getName() + " - " + e.getMessage());
                     }
-                } catch (Exception e) {
-                    logManager.addLog("Error processing file: " + file.getName() + " - " + e.getMessage());
+                    if (batch.size() >= publishEvery) publishBatch(batch, progress, generation);
+                    if (probeQueue.size() >= PROBE_BATCH_SIZE) {
+                        queuedForProbe[0] += probeQueue.size();
+                        startProbing(index, probeQueue, progress, generation);
+                    }
+                    if (++filesVisited[0] % PROGRESS_EVERY_FILES == 0 && uiManager != null) {
+                        uiManager.updateMediaInfo(context.getString(R.string.media_scan_progress_fmt,
+                            progress.published.get(), walker.getDirectoriesVisited()));
+                    }
+                    return true;
                 }
+            });
+
+            if (!isCurrentScan(generation)) {
+                logManager.addLog("Media scan cancelled after " + filesVisited[0] + " files");
+                return;
             }
-            
-            int totalCount = imageCount + videoCount;
-            int skippedCount = skippedVideos.size();
+            reportUnwatchedFolders();
+            publishBatch(batch, progress, generation);
+            if (!probeQueue.isEmpty()) {
+                queuedForProbe[0] += probeQueue.size();
+                startProbing(index, probeQueue, progress, generation);
+            }
+
+            // Only a complete walk knows which index entries are gone
+            int pruned = completed ? index.prune(mediaDir, seenPaths) : 0;
+            long saveStart = SystemClock.elapsedRealtime();
+            index.save();
+            long saveMs = SystemClock.elapsedRealtime() - saveStart;
+            logManager.addLog(String.format(Locale.US,
+                "Media scan timing: %dms total (%d files in %d folders, index load %dms, %d cached, %d rejected, %d queued for probing, %d pruned, save %dms)",
+                SystemClock.elapsedRealtime() - scanStart, filesVisited[0], walker.getDirectoriesVisited(), indexLoadMs,
+                stats.cacheHits, stats.rejected, queuedForProbe[0], pruned, saveMs));
+
+            int images = catalog.getImageCount();
+            int videos = catalog.getVideoCount();
             logManager.addLog(String.format("Found %d media files (%d images, %d videos, %d skipped videos)",
-                totalCount, imageCount, videoCount, skippedCount));
+                images + videos, images, videos, progress.skippedVideos.size()));
+            if (images + videos == 0 && queuedForProbe[0] == 0 && progress.skippedVideos.isEmpty()) {
+                logManager.addLog("Error: No media files found in " + folderName);
+            }
+            if (queuedForProbe[0] == 0) updateMediaCountInfo(progress.skippedVideos);
+        } catch (Exception e) {
+            logManager.addLog("Media scan failed: " + e.getMessage() +
+                             "\nStack trace: " + Arrays.toString(e.getStackTrace()));
+        } finally {
+            synchronized (this) {
+                if (activeWalker == walker) activeWalker = null;
+            }
+            progress.walkDone = true;
+            if (isCurrentScan(generation)) progress.checkReady(); else progress.ready.countDown();
+        }
+    }
+
+    private void publishBatch(List<MediaFile> batch, ScanProgress progress, int scanGen) {
+        if (batch.isEmpty()) return;
+        IntArray added = new IntArray(batch.size());
+        int catalogGeneration;
+        synchronized (catalog) {
+            // A newer scan already cleared the catalog; this batch belongs to the old one
+            if (!isCurrentScan(scanGen)) return;
+            for (int i = 0; i < batch.size(); i++) {
+                // The folder watcher may already have picked a file up on its own
+                int slot = catalog.add(batch.get(i));
+                if (slot >= 0) added.add(slot);
+            }
+            catalogGeneration = catalog.getGeneration();
+            skippedCount = progress.skippedVideos.size();
+        }
+        batch.clear();
+        if (added.isEmpty()) return;
+        progress.published.addAndGet(added.size());
+        deliverChange(catalogGeneration, added, new IntArray(0));
+        progress.checkReady();
+    }
 
-            if (uiManager != null) {
-                if (totalCount == 0 && skippedCount > 0) {
-                    // All media were skipped - show explicit operator guidance with file list (up to 5 names)
-                    int maxShow = 5;
-                    StringBuilder sb = new StringBuilder();
+    private synchronized boolean isCurrentScan(int generation) {
+        return generation == scanGeneration;
+    }
+
+    private void updateMediaCountInfo(List<String> skippedVideos) {
+        Settings current = settingsManager.getCurrentSettings();
+        int maxVideoSizeKB = current != null ? current.getMaxVideoSizeKB() : 0;
+        int images;
+        int videos;
+        int skipped;
+        synchronized (catalog) {
+            images = catalog.getImageCount();
+            videos = catalog.getVideoCount();
+            skipped = skippedCount;
+        }
+        int totalCount = images + videos;
+        if (uiManager != null) {
+            if (totalCount == 0 && skipped > 0) {
+                // All media were skipped - show explicit operator guidance with file list (up to 5 names)
+                int maxShow = 5;
+                StringBuilder sb = new StringBuilder();
+                synchronized (skippedVideos) {
                     for (int i = 0; i < Math.min(skippedVideos.size(), maxShow); i++) {
                         if (i > 0) sb.append(", ");
                         sb.append(skippedVideos.get(i));
                     }
                     if (skippedVideos.size() > maxShow) sb.append(", ...");
-                    String fileList = sb.toString();
-                    String msg = context.getString(R.string.media_all_skipped_by_size_fmt, skippedCount, maxVideoSizeKB, fileList);
-                    uiManager.updateMediaInfo(msg);
-                } else {
-                    String updateText = context.getString(R.string.media_count_detailed_fmt,
-                        totalCount, imageCount, videoCount, skippedCount);
-                    uiManager.updateMediaInfo(updateText);
                 }
+                String fileList = sb.toString();
+                String msg = context.getString(R.string.media_all_skipped_by_size_fmt, skipped, maxVideoSizeKB, fileList);
+                uiManager.updateMediaInfo(msg);
             } else {
-                logManager.addLog("Error: UIManager is null");
+                String updateText = context.getString(R.string.media_count_detailed_fmt,
+                    totalCount, images, videos, skipped);
+                uiManager.updateMediaInfo(updateText);
             }
+        } else {
+            logManager.addLog("Error: UIManager is null");
+        }
+    }
 
-            return totalCount > 0;
-            
+    /**
+     * Hand a batch of new/changed videos to the bounded prober and clear the queue. Each result
+     * is published to the catalog (and to the slideshow via the change listener) as soon as it
+     * arrives; the index is saved once probing goes quiet rather than after every batch.
+     */
+    private void startProbing(final MediaIndex index, List<MediaIndex.Entry> probeQueue,
+                              final ScanProgress progress, final int generation) {
+        List<MediaIndex.Entry> entries = new ArrayList<>(probeQueue);
+        probeQueue.clear();
+        progress.pendingProbeBatches.incrementAndGet();
+        getProber().probeAll(entries, getWatchHandler(), new MediaProber.Callback() {
+            @Override
+            public void onProbed(File file, MediaIndex.Entry entry, boolean timedOut) {
+                // Timed-out files stay out of the index so they are retried next scan
+                if (!timedOut) index.put(entry);
+                MediaFile mediaFile = evaluateVideo(file, entry, index, progress.skippedVideos);
+                IntArray added = new IntArray(1);
+                int catalogGeneration;
+                synchronized (catalog) {
+                    skippedCount = progress.skippedVideos.size();
+                    // The folder watcher may already have picked this file up on its own
+                    int slot = mediaFile != null ? catalog.add(mediaFile) : -1;
+                    if (slot < 0) return;
+                    added.add(slot);
+                    catalogGeneration = catalog.getGeneration();
+                }
+                progress.published.incrementAndGet();
+                deliverChange(catalogGeneration, added, new IntArray(0));
+                progress.checkReady();
+            }
+
+            @Override
+            public void onAllProbed(int probed, int timedOut, long elapsedMs) {
+                scheduleIndexSave();
+                logManager.addLog("Video probing batch finished: " + probed + " probed, " + timedOut
+                    + " timed out in " + elapsedMs + "ms");
+                if (progress.pendingProbeBatches.decrementAndGet() == 0 && progress.walkDone
+                        && isCurrentScan(generation)) {
+                    updateMediaCountInfo(progress.skippedVideos);
+                }
+                progress.checkReady();
+            }
+        });
+    }
+
+    // Coalesce index writes while a large library is still being probed
+    private void scheduleIndexSave() {
+        Handler h = getWatchHandler();
+        h.removeCallbacks(saveIndexRunnable);
+        h.postDelayed(saveIndexRunnable, INDEX_SAVE_DELAY_MS);
+    }
+
+    private void saveIndex() {
+        MediaIndex index;
+        synchronized (this) {
+            index = mediaIndex;
+        }
+        if (index != null) index.save();
+    }
+
+    private synchronized MediaProber getProber() {
+        if (mediaProber == null) {
+            Settings current = settingsManager.getCurrentSettings();
+            int threads = current != null ? current.getProbeThreads() : 2;
+            mediaProber = new MediaProber(logManager, threads, getProbeTimeoutMs());
+            mediaProber.setPosters(videoPosters);
+        }
+        return mediaProber;
+    }
+
+    private long getProbeTimeoutMs() {
+        Settings current = settingsManager.getCurrentSettings();
+        return current != null ? current.getProbeTimeoutMs() : 8000;
+    }
+
+    /**
+     * Stop the background walk and any in-flight video probing. Called when the SD card goes
+     * away so nothing touches the removed card and no stale result is published.
+     */
+    public void cancelScan() {
+        MediaProber prober;
+        MediaWalker walker;
+        synchronized (this) {
+            prober = mediaProber;
+            // Re-created on the next scan so settings changes to the pool size apply
+            mediaProber = null;
+            walker = activeWalker;
+            activeWalker = null;
+            scanGeneration++;
+        }
+        if (walker != null) {
+            walker.cancel();
+            logManager.addLog("Media walk cancelled");
+        }
+        if (prober != null) {
+            prober.cancel();
+            logManager.addLog("Media probing cancelled");
+        }
+    }
+
+    // Per-scan counters shared by the full scan and the folder watcher
+    private static class ScanStats {
+        int cacheHits;
+        int rejected;
+        boolean lastWasMedia;
+    }
+
+    /**
+     * Classify a single file against the persistent index, sniffing and probing it only when it
+     * is new or changed. Returns the playable MediaFile, or null when the file is not media, its
+     * content is not a supported format (recorded in the index so it is not retried), it is
+     * skipped by the current video limits (its name is then added to skippedVideos), or it still
+     * needs probing. New videos are added to probeQueue for the background prober, which has
+     * per-file timeouts; they are never probed on the calling thread.
+     */
+    private MediaFile indexMediaFile(File file, MediaIndex index, ScanStats stats, List<String> skippedVideos,
+                                     List<MediaIndex.Entry> probeQueue) {
+        stats.lastWasMedia = false;
+        MediaClassifier.Format nameFormat = MediaClassifier.formatForName(file.getName());
+        if (nameFormat == null) return null;
+        stats.lastWasMedia = true;
+        boolean sniff = isHeaderSniffingEnabled();
+
+        // Only stat the file; the index tells us whether it needs probing again
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        MediaIndex.Entry entry = index.lookup(file, size, lastModified);
+        if (entry != null && entry.type == null && sniff) {
+            // This exact file version was already rejected by content; never retry it
+            stats.cacheHits++;
+            stats.rejected++;
+            return null;
+        }
+        if (entry == null || entry.type == null) {
+            MediaType type = nameFormat.type;
+            String rejectReason = null;
+            if (sniff) {
+                MediaClassifier.Format contentFormat;
+                try {
+                    contentFormat = size > 0 ? MediaClassifier.sniff(file) : null;
+                } catch (Exception e) {
+                    // Unreadable right now (e.g. still being copied); decide on a later pass
+                    logManager.addLog("Could not read header of " + file.getName() + ": " + e.getMessage());
+                    return null;
+                }
+                if (contentFormat == null) {
+                    rejectReason = size > 0 ? "Unrecognized content" : "Empty file";
+                } else {
+                    if (contentFormat != nameFormat) {
+                        logManager.addLog("Content of " + file.getName() + " is " + contentFormat + ", not " + nameFormat);
+                    }
+                    type = contentFormat.type;
+                }
+            }
+            entry = new MediaIndex.Entry(path, size, lastModified, rejectReason == null ? type : null);
+            if (rejectReason != null) {
+                entry.skipReason = rejectReason;
+                index.put(entry);
+                stats.rejected++;
+                logManager.addLog("Warning: rejected non-media file: " + file.getName() + " (" + rejectReason + ")");
+                return null;
+            }
+            if (type == MediaType.VIDEO) {
+                probeQueue.add(entry);
+                return null;
+            }
+            index.put(entry);
+        } else {
+            stats.cacheHits++;
+        }
+
+        if (entry.type == MediaType.IMAGE && nameFormat.type == MediaType.ANIMATED) {
+            // Indexed before GIFs were played as animations
+            index.setType(entry, MediaType.ANIMATED);
+        }
+        if (entry.type == MediaType.IMAGE || entry.type == MediaType.ANIMATED) {
+            return new MediaFile(file, entry.type, entry);
+        }
+        return evaluateVideo(file, entry, index, skippedVideos);
+    }
+
+    private boolean isHeaderSniffingEnabled() {
+        Settings current = settingsManager.getCurrentSettings();
+        return current == null || current.isSniffMediaHeaders();
+    }
+
+    private MediaFile evaluateVideo(File file, MediaIndex.Entry entry, MediaIndex index, List<String> skippedVideos) {
+        // Skip decisions depend on the current limits, so re-evaluate them from cached facts
+        Settings current = settingsManager.getCurrentSettings();
+        int maxVideoSizeKB = current != null ? current.getMaxVideoSizeKB() : 0;
+        int maxVideoPixels = current != null ? current.getMaxVideoPixels() : 0;
+        String skipReason = evaluateVideoLimits(entry, maxVideoSizeKB, maxVideoPixels);
+        if (!equalsNullable(skipReason, entry.skipReason)) index.setSkipReason(entry, skipReason);
+        if (skipReason != null) {
+            logManager.addLog("Warning: " + skipReason + " video skipped: " + file.getName() +
+                (entry.width > 0 ? " (" + entry.width + "x" + entry.height + ", " : " (") +
+                (entry.size / 1024) + "KB)");
+            skippedVideos.add(file.getName());
+            return null;
+        }
+        return new MediaFile(file, MediaType.VIDEO, entry);
+    }
+
+    // Single background thread that applies watcher diffs and receives probe results in order
+    private synchronized Handler getWatchHandler() {
+        if (watchThread == null) {
+            watchThread = new HandlerThread("MediaWatcher");
+            watchThread.start();
+            watchHandler = new Handler(watchThread.getLooper());
+        }
+        return watchHandler;
+    }
+
+    /**
+     * Watch one folder of the library so files copied in or deleted while the slideshow runs are
+     * applied to the catalog as small diffs instead of requiring a full rescan. FileObserver is
+     * not recursive, so the walk registers every folder it visits.
+     */
+    private void watchFolder(File dir) {
+        try {
+            String path = dir.getAbsolutePath();
+            MediaFolderObserver observer;
+            synchronized (folderObservers) {
+                if (folderObservers.containsKey(path)) return;
+                if (folderObservers.size() >= MAX_WATCHED_FOLDERS) {
+                    // Counted here and logged once by reportUnwatchedFolders()
+                    unwatchedFolders++;
+                    return;
+                }
+                observer = new MediaFolderObserver(dir);
+                folderObservers.put(path, observer);
+            }
+            observer.startWatching();
+            if (dir.equals(watchedDir)) {
+                logManager.addLog("Watching media folder for changes: " + dir.getName());
+            }
         } catch (Exception e) {
-            logManager.addLog("Media scan failed: " + e.getMessage() +
-                             "\nStack trace: " + Arrays.toString(e.getStackTrace()));
-            return false;
+            logManager.addLog("Could not watch media folder: " + e.getMessage());
         }
     }
 
-    private String getMimeType(String fileName) {
-        // Try Android's built-in detection first
-        String cleanFileName = fileName.replaceAll("\\s+|[()]", "_");
-        String extension = MimeTypeMap.getFileExtensionFromUrl(cleanFileName);
-        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
-        
-        // If Android couldn't determine the type, use extension-based backup
-        if (mimeType == null) {
-            String ext = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
-            // Common image formats
-            if (Arrays.asList("jpg", "jpeg", "png", "gif", "bmp", "webp").contains(ext)) {
-                return "image/" + ext;
+    // One log line for the folders the watch limit left out since the last report
+    private void reportUnwatchedFolders() {
+        int skipped;
+        synchronized (folderObservers) {
+            skipped = unwatchedFolders - unwatchedReported;
+            unwatchedReported = unwatchedFolders;
+        }
+        if (skipped > 0) {
+            logManager.addLog("Watching the first " + MAX_WATCHED_FOLDERS + " media folders only; "
+                + skipped + " more not watched");
+        }
+    }
+
+    // Stop watching a removed folder and everything below it
+    private void unwatchFolders(String path) {
+        String prefix = path + File.separator;
+        synchronized (folderObservers) {
+            Iterator<Map.Entry<String, MediaFolderObserver>> it = folderObservers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, MediaFolderObserver> entry = it.next();
+                if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                    entry.getValue().stopWatching();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void stopWatching() {
+        try {
+            synchronized (folderObservers) {
+                for (MediaFolderObserver observer : folderObservers.values()) {
+                    observer.stopWatching();
+                }
+                folderObservers.clear();
+                unwatchedFolders = 0;
+                unwatchedReported = 0;
+            }
+            if (watchHandler != null) watchHandler.removeCallbacks(applyPendingChangesRunnable);
+            synchronized (pendingChanges) {
+                pendingChanges.clear();
             }
-            // Common video formats
-            else if (Arrays.asList("mp4", "3gp", "webm", "mkv", "mov").contains(ext)) {
-                return "video/" + ext;
+            synchronized (this) {
+                watchedDir = null;
+                watchFilter = null;
             }
+        } catch (Exception e) {
+            logManager.addLog("Error stopping media folder watch: " + e.getMessage());
         }
-        
-        return mimeType;
     }
-    
+
+    private class MediaFolderObserver extends FileObserver {
+        private final File dir;
+
+        MediaFolderObserver(File dir) {
+            super(dir.getAbsolutePath(), WATCH_MASK);
+            this.dir = dir;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            int type = event & FileObserver.ALL_EVENTS;
+            if ((type & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                // Subfolders are handled through their parent's DELETE/MOVED_FROM event
+                if (dir.equals(watchedDir)) logManager.addLog("Media folder was removed or moved - watcher stopped");
+                return;
+            }
+            // Ignore hidden/temp files that editors and copy tools write before renaming
+            if (name == null || name.isEmpty() || name.startsWith(".")) return;
+            synchronized (pendingChanges) {
+                pendingChanges.add(new File(dir, name).getAbsolutePath());
+            }
+            Handler h = watchHandler;
+            if (h != null) {
+                // Debounce: every event pushes the flush back so partially copied files settle first
+                h.removeCallbacks(applyPendingChangesRunnable);
+                h.postDelayed(applyPendingChangesRunnable, WATCH_DEBOUNCE_MS);
+            }
+        }
+    }
+
+    /**
+     * Runs on the watcher thread once the library has been quiet for WATCH_DEBOUNCE_MS.
+     * Each touched path is re-stat'ed and resolved into an add, a replace or a removal; a folder
+     * that appeared is walked and watched, a folder that vanished drops everything below it. A
+     * file whose size and modification time still match its index entry is left alone, and a
+     * changed video keeps its slot until its probe result replaces it.
+     */
+    private void applyPendingChanges() {
+        List<String> paths;
+        synchronized (pendingChanges) {
+            if (pendingChanges.isEmpty()) return;
+            paths = new ArrayList<>(pendingChanges);
+            pendingChanges.clear();
+        }
+        final File dir;
+        final MediaWalker filter;
+        synchronized (this) {
+            dir = watchedDir;
+            filter = watchFilter;
+        }
+        if (dir == null || filter == null) return;
+        final MediaIndex index = getIndex(dir.getParentFile());
+        // Slots are only meaningful within one catalog generation; a rescan mid-way voids this diff
+        final int generation = catalog.getGeneration();
+        final IntArray added = new IntArray();
+        IntArray removed = new IntArray();
+        final List<String> skipped = new ArrayList<>();
+        final ScanStats stats = new ScanStats();
+        // New videos go to the prober pool, which has per-file timeouts; this thread only does bookkeeping
+        final List<MediaIndex.Entry> probeQueue = new ArrayList<>();
+
+        for (String path : paths) {
+            try {
+                File file = new File(path);
+                if (file.isDirectory()) {
+                    int removedSlot = catalog.remove(path);
+                    if (removedSlot >= 0) removed.add(removedSlot);
+                    if (!filter.acceptsDirectory(file)) continue;
+                    filter.walkFrom(file, filter.depthOf(file), new MediaWalker.Visitor() {
+                        @Override
+                        public void onDirectory(File subdir, int depth) {
+                            watchFolder(subdir);
+                        }
+
+                        @Override
+                        public boolean onFile(File child) {
+                            MediaFile mediaFile = indexMediaFile(child, index, stats, skipped, probeQueue);
+                            int slot = mediaFile != null ? catalog.add(mediaFile) : -1;
+                            if (slot >= 0) added.add(slot);
+                            return true;
+                        }
+                    });
+                    continue;
+                }
+                if (!file.exists()) {
+                    int removedSlot = catalog.remove(path);
+                    if (removedSlot >= 0) removed.add(removedSlot);
+                    // Might have been a folder: drop whatever the catalog held below it
+                    catalog.removeUnder(path, removed);
+                    unwatchFolders(path);
+                    continue;
+                }
+                if (!file.isFile() || !filter.acceptsFile(file)) {
+                    int removedSlot = catalog.remove(path);
+                    if (removedSlot >= 0) removed.add(removedSlot);
+                    continue;
+                }
+                // Sync tools rewrite unchanged files; re-adding them would only reshuffle the play queue
+                if (catalog.findSlot(path) >= 0 && index.lookup(file, file.length(), file.lastModified()) != null) continue;
+                int queuedBefore = probeQueue.size();
+                MediaFile mediaFile = indexMediaFile(file, index, stats, skipped, probeQueue);
+                // A changed video stays playable in its old version until probeWatchedVideos replaces it
+                if (probeQueue.size() > queuedBefore) continue;
+                int removedSlot = catalog.remove(path);
+                if (removedSlot >= 0) removed.add(removedSlot);
+                int slot = mediaFile != null ? catalog.add(mediaFile) : -1;
+                if (slot >= 0) added.add(slot);
+            } catch (Exception e) {
+                logManager.addLog("Error applying media change for " + path + ": " + e.getMessage());
+            }
+        }
+        index.save();
+        reportUnwatchedFolders();
+        if (!probeQueue.isEmpty()) probeWatchedVideos(index, probeQueue, generation, skipped.size());
+
+        if (added.isEmpty() && removed.isEmpty()) return;
+        // A replaced file shows up in both lists (same slot); listeners remove first, then add
+        logManager.addLog("Media folder changed: +" + added.size() + " / -" + removed.size()
+            + (probeQueue.isEmpty() ? "" : " (" + probeQueue.size() + " videos to probe)"));
+        updateWatchedCounts(skipped.size());
+        deliverChange(generation, added, removed);
+    }
+
+    /**
+     * Probe videos the watcher found on the prober pool, like the scan does, and add each one to
+     * the catalog as its result arrives, replacing the old version of a changed video. Results
+     * come back on the watcher thread.
+     */
+    private void probeWatchedVideos(final MediaIndex index, List<MediaIndex.Entry> probeQueue, final int generation,
+                                    final int skippedBefore) {
+        final List<String> skipped = Collections.synchronizedList(new ArrayList<String>());
+        getProber().probeAll(new ArrayList<>(probeQueue), getWatchHandler(), new MediaProber.Callback() {
+            @Override
+            public void onProbed(File file, MediaIndex.Entry entry, boolean timedOut) {
+                // Timed-out files stay out of the index so they are retried on the next change or scan
+                if (!timedOut) index.put(entry);
+                // Deleted or rescanned while it was being probed
+                if (!file.exists() || catalog.getGeneration() != generation) return;
+                MediaFile mediaFile = evaluateVideo(file, entry, index, skipped);
+                // The old version, if any, leaves even when the new one cannot play
+                IntArray removed = new IntArray(1);
+                int removedSlot = catalog.remove(file.getAbsolutePath());
+                if (removedSlot >= 0) removed.add(removedSlot);
+                IntArray added = new IntArray(1);
+                int slot = mediaFile != null ? catalog.add(mediaFile) : -1;
+                if (slot >= 0) added.add(slot);
+                if (added.isEmpty() && removed.isEmpty()) return;
+                deliverChange(generation, added, removed);
+            }
+
+            @Override
+            public void onAllProbed(int probed, int timedOut, long elapsedMs) {
+                scheduleIndexSave();
+                logManager.addLog("Watched videos probed: " + probed + " probed, " + timedOut
+                    + " timed out in " + elapsedMs + "ms");
+                updateWatchedCounts(skippedBefore + skipped.size());
+            }
+        });
+    }
+
+    private void updateWatchedCounts(int skipped) {
+        if (uiManager == null) return;
+        int images = catalog.getImageCount();
+        int videos = catalog.getVideoCount();
+        uiManager.updateMediaInfo(context.getString(R.string.media_count_detailed_fmt,
+            images + videos, images, videos, skipped));
+    }
+
+    private void deliverChange(final int generation, final IntArray added, final IntArray removed) {
+        final MediaChangeListener listener = mediaChangeListener;
+        if (listener == null) return;
+        mainHandler.post(() -> {
+            try {
+                listener.onMediaChanged(generation, added, removed);
+            } catch (Exception e) {
+                logManager.addLog("Error delivering media change: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns the persistent index for the given EoPhoenix dir, (re)loading it when the
+     * storage root changed since the last scan.
+     */
+    private synchronized MediaIndex getIndex(File eoPhoenixDir) {
+        if (mediaIndex == null || indexDir == null || !indexDir.equals(eoPhoenixDir)) {
+            mediaIndex = new MediaIndex(eoPhoenixDir, logManager);
+            mediaIndex.load();
+            indexDir = eoPhoenixDir;
+            logManager.addLog("Media index loaded: " + mediaIndex.size() + " entries");
+        }
+        return mediaIndex;
+    }
+
+    private static String evaluateVideoLimits(MediaIndex.Entry entry, int maxVideoSizeKB, int maxVideoPixels) {
+        if (entry.size / 1024 > maxVideoSizeKB) return "Large";
+        if (maxVideoPixels > 0 && entry.width > 0 && entry.height > 0
+                && (long) entry.width * entry.height > maxVideoPixels) {
+            return "High-resolution";
+        }
+        return null;
+    }
+
+    private static boolean equalsNullable(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     public enum MediaType {
         IMAGE,
-        VIDEO
+        VIDEO,
+        // Animated GIF, played frame by frame by AnimatedImagePlayer
+        ANIMATED
     }
     
+    /**
+     * One playable file. The catalog stores media as columns; MediaFile objects are created on
+     * demand for the item being indexed or shown and are not retained.
+     */
     public static class MediaFile {
         private final File file;
         private final MediaType type;
-        
-        MediaFile(File file, MediaType type) {
+        private final MediaIndex.Entry metadata;
+
+        MediaFile(File file, MediaType type, MediaIndex.Entry metadata) {
             this.file = file;
             this.type = type;
+            this.metadata = metadata;
         }
-    
+
         public File getFile() { return file; }
         public MediaType getType() { return type; }
         public String getName() { return file.getName(); }
+
+        /**
+         * Cached metadata for this file version (resolution, duration, rotation, codec, bitrate).
+         * Reading it never touches storage.
+         */
+        public MediaIndex.Entry getMetadata() { return metadata; }
         
         public boolean isVideo() {
             // Simply check the type that's already stored
@@ -202,12 +894,20 @@ public class MediaManager {
     }    
 
     public boolean hasMedia() {
-        return mediaFiles != null && !mediaFiles.isEmpty();
+        return catalog.size() > 0;
     }
 
     public void clearMedia() {
-        mediaFiles.clear();
-        imageCount = 0;
-        videoCount = 0;
+        cancelScan();
+        stopWatching();
+        synchronized (catalog) {
+            catalog.clear();
+            skippedCount = 0;
+        }
+        // Drop the in-memory index so a different card reloads its own index file
+        synchronized (this) {
+            mediaIndex = null;
+            indexDir = null;
+        }
     }    
-}
\ No newline at end of file
+}
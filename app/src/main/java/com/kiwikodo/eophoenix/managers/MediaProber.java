@@ -0,0 +1,211 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs video metadata probes on a small bounded pool so a slow SD card does not serialize the
+ * whole media scan. Every probe has its own timeout. A streaming scan submits several batches
+ * that share the pool; cancel() drops all of them at once (e.g. on SD removal) and results of
+ * cancelled batches are never delivered.
+ */
+public class MediaProber {
+    public interface Callback {
+        /**
+         * Called on the result handler for each file. When timedOut is true the entry carries no
+         * probe data and should not be persisted, so the file is probed again on the next scan.
+         */
+        void onProbed(File file, MediaIndex.Entry entry, boolean timedOut);
+
+        /** Called on the result handler once every file of the batch has been delivered. */
+        void onAllProbed(int probed, int timedOut, long elapsedMs);
+    }
+
+    private final LogManager logManager;
+    private final int threads;
+    private final long timeoutMs;
+    private ExecutorService executor;
+    private int generation = 0;
+    // Poster frames are taken with the same retriever while probing; null when disabled
+    private volatile VideoPosters posters;
+
+    public MediaProber(LogManager logManager, int threads, long timeoutMs) {
+        this.logManager = logManager;
+        this.threads = threads;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public void setPosters(VideoPosters posters) {
+        this.posters = posters;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null || executor.isShutdown() || executor.isTerminated()) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = r -> new Thread(() -> {
+                // Keep probing well below the UI and decode threads
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "MediaProbe-" + count.incrementAndGet());
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+            // Idle probe threads exit between scans instead of holding their stacks forever
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    private synchronized boolean isCurrent(int gen) {
+        return gen == generation;
+    }
+
+    /**
+     * Probe all entries (each must describe a video file) and deliver the results on resultHandler.
+     * Batches submitted before the next cancel() run side by side on the same pool.
+     */
+    public void probeAll(final List<MediaIndex.Entry> entries, final Handler resultHandler, final Callback callback) {
+        final int gen;
+        synchronized (this) {
+            gen = generation;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        if (entries.isEmpty()) {
+            resultHandler.post(() -> {
+                if (isCurrent(gen)) callback.onAllProbed(0, 0, 0);
+            });
+            return;
+        }
+        logManager.addLog("Probing " + entries.size() + " videos on " + threads + " threads");
+        final AtomicInteger remaining = new AtomicInteger(entries.size());
+        final AtomicInteger timedOutCount = new AtomicInteger();
+        ExecutorService pool = getExecutor();
+
+        for (final MediaIndex.Entry entry : entries) {
+            final File file = new File(entry.path);
+            final AtomicBoolean delivered = new AtomicBoolean(false);
+            final Future<?>[] future = new Future<?>[1];
+
+            final Runnable deliver = () -> {
+                if (!isCurrent(gen)) return;
+                try {
+                    callback.onProbed(file, entry, false);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onAllProbed(entries.size() - timedOutCount.get(), timedOutCount.get(),
+                            SystemClock.elapsedRealtime() - start);
+                    }
+                }
+            };
+            final Runnable timeout = () -> {
+                if (!delivered.compareAndSet(false, true)) return;
+                // setDataSource is not interruptible, but cancelling frees the slot once it returns
+                if (future[0] != null) future[0].cancel(true);
+                if (!isCurrent(gen)) return;
+                timedOutCount.incrementAndGet();
+                logManager.addLog("Video probe timed out after " + timeoutMs + "ms: " + file.getName());
+                MediaIndex.Entry unprobed = new MediaIndex.Entry(entry.path, entry.size, entry.lastModified, entry.type);
+                try {
+                    callback.onProbed(file, unprobed, true);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onAllProbed(entries.size() - timedOutCount.get(), timedOutCount.get(),
+                            SystemClock.elapsedRealtime() - start);
+                    }
+                }
+            };
+
+            try {
+                future[0] = pool.submit(() -> {
+                    if (!isCurrent(gen)) return;
+                    // The timeout covers the probe itself, not time spent queued behind other files
+                    resultHandler.postDelayed(timeout, timeoutMs);
+                    probeVideo(file, entry, logManager, posters);
+                    resultHandler.removeCallbacks(timeout);
+                    if (delivered.compareAndSet(false, true)) resultHandler.post(deliver);
+                });
+            } catch (Exception e) {
+                // Pool was shut down by a concurrent cancel(); nothing will be delivered for this batch
+                logManager.addLog("Video probe rejected for " + file.getName() + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cancel every submitted batch. Pending probes are dropped and in-flight ones are interrupted;
+     * nothing from a cancelled batch reaches the callback.
+     */
+    public void cancel() {
+        ExecutorService toShutdown;
+        synchronized (this) {
+            generation++;
+            toShutdown = executor;
+            executor = null;
+        }
+        try {
+            if (toShutdown != null) toShutdown.shutdownNow();
+        } catch (Exception ignored) {}
+    }
+
+    /**
+     * Read everything playback needs about a video in one go: dimensions, duration, rotation,
+     * bitrate and the video track's codec mime, plus its poster frame when posters is set. This
+     * is the only place videos are probed. Probe failures are not fatal: the entry keeps zero
+     * dimensions and playback decides.
+     */
+    static void probeVideo(File file, MediaIndex.Entry entry, LogManager logManager, VideoPosters posters) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            String wStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+            String hStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+            String dStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            String rStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            String bStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE);
+            if (wStr != null && hStr != null) {
+                entry.width = Integer.parseInt(wStr);
+                entry.height = Integer.parseInt(hStr);
+            }
+            if (dStr != null) entry.durationMs = Long.parseLong(dStr);
+            if (rStr != null) entry.rotationDegrees = Integer.parseInt(rStr);
+            if (bStr != null) entry.bitrate = Integer.parseInt(bStr);
+            if (posters != null) posters.extract(retriever, file, entry);
+        } catch (Exception e) {
+            logManager.addLog("Resolution check failed for " + file.getName() + ": " + e.getMessage());
+        } finally {
+            try { retriever.release(); } catch (Exception ignored) {}
+        }
+
+        // The retriever only reports the container type; the extractor knows the video codec
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    entry.codecMime = mime;
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            logManager.addLog("Codec check failed for " + file.getName() + ": " + e.getMessage());
+        } finally {
+            try { extractor.release(); } catch (Exception ignored) {}
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.kiwikodo.eophoenix.managers;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming directory walker for large media libraries. Directories are visited one at a time
+ * from an explicit stack, so memory is bounded by the largest single directory listing rather
+ * than the size of the whole tree, and files are handed to the visitor as they are found.
+ *
+ * Include/exclude globs are matched against the path relative to the root using '/' separators:
+ * '*' matches within one path segment, '**' matches across segments and '?' matches one character.
+ * Hidden files and folders (leading '.') are always skipped.
+ */
+public class MediaWalker {
+    public interface Visitor {
+        /** Called before the files of a directory are visited; depth 0 is the root. */
+        void onDirectory(File dir, int depth);
+
+        /** Return false to stop the walk. */
+        boolean onFile(File file);
+    }
+
+    private final File root;
+    private final int maxDepth;
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+    private volatile boolean cancelled = false;
+    private int directoriesVisited = 0;
+
+    public MediaWalker(File root, int maxDepth, List<String> includeGlobs, List<String> excludeGlobs) {
+        this.root = root;
+        this.maxDepth = Math.max(0, maxDepth);
+        this.includes = compileGlobs(includeGlobs);
+        this.excludes = compileGlobs(excludeGlobs);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getDirectoriesVisited() {
+        return directoriesVisited;
+    }
+
+    /**
+     * Walk the tree below the root. Returns true when the whole tree was visited, false when the
+     * walk was cancelled or the visitor asked to stop.
+     */
+    public boolean walk(Visitor visitor) {
+        return walkFrom(root, depthOf(root), visitor);
+    }
+
+    /**
+     * Walk a subtree of the root (e.g. a folder that appeared while the slideshow was running),
+     * honouring the same depth limit and globs as a full walk.
+     */
+    public boolean walkFrom(File dir, int startDepth, Visitor visitor) {
+        ArrayDeque<File> dirs = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        dirs.push(dir);
+        depths.push(startDepth);
+
+        while (!dirs.isEmpty()) {
+            if (cancelled) return false;
+            File current = dirs.pop();
+            int depth = depths.pop();
+            String[] names = current.list();
+            if (names == null) continue;
+            directoriesVisited++;
+            visitor.onDirectory(current, depth);
+
+            for (String name : names) {
+                if (cancelled) return false;
+                if (name.startsWith(".")) continue;
+                File child = new File(current, name);
+                String relative = relativePath(child);
+                if (matchesAny(excludes, relative)) continue;
+                if (child.isDirectory()) {
+                    if (depth < maxDepth) {
+                        dirs.push(child);
+                        depths.push(depth + 1);
+                    }
+                    continue;
+                }
+                if (!includes.isEmpty() && !matchesAny(includes, relative)) continue;
+                if (!visitor.onFile(child)) return false;
+            }
+        }
+        return !cancelled;
+    }
+
+    /** Depth of a directory below the root (root is 0), or -1 if it is outside the root. */
+    public int depthOf(File dir) {
+        String rootPath = root.getAbsolutePath();
+        String path = dir.getAbsolutePath();
+        if (path.equals(rootPath)) return 0;
+        if (!path.startsWith(rootPath + File.separator)) return -1;
+        int depth = 0;
+        for (int i = rootPath.length(); i < path.length(); i++) {
+            if (path.charAt(i) == File.separatorChar) depth++;
+        }
+        return depth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** True if a directory at this path would be descended into by a full walk. */
+    public boolean acceptsDirectory(File dir) {
+        int depth = depthOf(dir);
+        return depth >= 0 && depth <= maxDepth && !dir.getName().startsWith(".")
+            && !matchesAny(excludes, relativePath(dir));
+    }
+
+    /** True if a file at this path would be handed to the visitor by a full walk. */
+    public boolean acceptsFile(File file) {
+        File parent = file.getParentFile();
+        if (parent == null || file.getName().startsWith(".")) return false;
+        int depth = depthOf(parent);
+        if (depth < 0 || depth > maxDepth) return false;
+        String relative = relativePath(file);
+        if (matchesAny(excludes, relative)) return false;
+        return includes.isEmpty() || matchesAny(includes, relative);
+    }
+
+    private String relativePath(File file) {
+        String rootPath = root.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        String relative = path.length() > rootPath.length() ? path.substring(rootPath.length() + 1) : "";
+        return File.separatorChar == '/' ? relative : relative.replace(File.separatorChar, '/');
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String relative) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(relative).matches()) return true;
+        }
+        return false;
+    }
+
+    private static List<Pattern> compileGlobs(List<String> globs) {
+        List<Pattern> patterns = new ArrayList<>();
+        if (globs == null) return patterns;
+        for (String glob : globs) {
+            if (glob == null || glob.trim().isEmpty()) continue;
+            patterns.add(Pattern.compile(globToRegex(glob.trim()), Pattern.CASE_INSENSITIVE));
+        }
+        return patterns;
+    }
+
+    static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        // A glob without a '/' applies to the name at any depth, e.g. "*.mp4" or "Thumbs.db"
+        if (glob.indexOf('/') < 0) sb.append("(?:.*/)?");
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    i++;
+                    // "**/" also matches zero directories
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                        i++;
+                        sb.append("(?:.*/)?");
+                    } else {
+                        sb.append(".*");
+                    }
+                } else {
+                    sb.append("[^/]*");
+                }
+            } else if (c == '?') {
+                sb.append("[^/]");
+            } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+                sb.append('\\').append(c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.animation.ValueAnimator;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.animation.LinearInterpolator;
+
+/**
+ * Shows a panorama (or a very tall image) at screen resolution by decoding only the strips that
+ * are on screen with BitmapRegionDecoder, and pans across it over the slide duration. The image
+ * fills the screen across the pan axis; along it the source is cut into tiles half a screen
+ * long, so at most the visible tiles plus one ahead are resident however large the source is.
+ * Tiles are decoded on the BitmapLoader thread ahead of the pan and dropped once they scroll
+ * off.
+ *
+ * Created by BitmapLoader and handed to a PanoramaCallback; everything except the tile decodes
+ * runs on the main thread. The owner must call release() when the slide ends.
+ */
+public class PanoramaDrawable extends Drawable {
+    // Images at least this many times wider (or taller) than the screen's aspect are panned
+    private static final float MIN_ASPECT_RATIO = 2f;
+    // Tiles decoded beyond the leading edge of the viewport
+    private static final int TILES_AHEAD = 1;
+
+    private final BitmapLoader loader;
+    private final BitmapRegionDecoder decoder;
+    private final String name;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF dest = new RectF();
+    private final int imageW;
+    private final int imageH;
+    private final int viewW;
+    private final int viewH;
+    private final boolean horizontal;
+    // View pixels per source pixel
+    private final float scale;
+    private final int sampleSize;
+    // Source pixels along the pan axis per tile; a multiple of sampleSize so tiles meet exactly
+    private final int tileSpan;
+    private final Bitmap[] tiles;
+    private final boolean[] pending;
+    // One spare full-size tile bitmap; region decodes only reuse bitmaps of exactly the tile size
+    private Bitmap spare;
+    private float progress = 0f;
+    private ValueAnimator animator;
+    private volatile boolean released = false;
+    private int tilesDecoded = 0;
+
+    static boolean isPanorama(int imageW, int imageH, int viewW, int viewH) {
+        if (imageW <= 0 || imageH <= 0 || viewW <= 0 || viewH <= 0) return false;
+        float imageAspect = (float) imageW / imageH;
+        float viewAspect = (float) viewW / viewH;
+        return imageAspect / viewAspect >= MIN_ASPECT_RATIO || viewAspect / imageAspect >= MIN_ASPECT_RATIO;
+    }
+
+    PanoramaDrawable(BitmapLoader loader, BitmapRegionDecoder decoder, String name, int viewW, int viewH) {
+        this.loader = loader;
+        this.decoder = decoder;
+        this.name = name;
+        this.viewW = viewW;
+        this.viewH = viewH;
+        imageW = decoder.getWidth();
+        imageH = decoder.getHeight();
+        horizontal = (float) imageW / imageH >= (float) viewW / viewH;
+        // Fill the cross axis; the pan covers the rest
+        scale = horizontal ? (float) viewH / imageH : (float) viewW / imageW;
+        // Largest power of two that still leaves at least one source pixel per screen pixel
+        int sample = 1;
+        while (sample * 2 * scale <= 1f) sample *= 2;
+        sampleSize = sample;
+        int viewportSpan = (int) Math.ceil((horizontal ? viewW : viewH) / scale);
+        tileSpan = Math.max(sample, (viewportSpan / 2 + sample - 1) / sample * sample);
+        int length = horizontal ? imageW : imageH;
+        int count = (length + tileSpan - 1) / tileSpan;
+        tiles = new Bitmap[count];
+        pending = new boolean[count];
+    }
+
+    /** Upper bound on resident tile memory: the viewport, the tiles ahead and the spare. */
+    long estimatedBytes() {
+        long alongPx = tileSpan / sampleSize;
+        long crossPx = ((horizontal ? imageH : imageW) + sampleSize - 1) / sampleSize;
+        return (3 + TILES_AHEAD + 1) * alongPx * crossPx * 2;
+    }
+
+    /** Decode the tiles for the start of the pan. Called on the loader thread before publishing. */
+    void decodeInitialTiles() {
+        int last = Math.min(tiles.length - 1, lastVisibleTile(0f) + TILES_AHEAD);
+        for (int i = 0; i <= last; i++) {
+            Bitmap tile = decodeTile(i, null);
+            if (tile == null) throw new RuntimeException("Region decode failed for " + name);
+            tiles[i] = tile;
+        }
+    }
+
+    /** Pan from one end to the other over durationMs. */
+    public void start(long durationMs) {
+        stop();
+        if (released) return;
+        animator = ValueAnimator.ofFloat(0f, 1f);
+        animator.setDuration(Math.max(1000L, durationMs));
+        animator.setInterpolator(new LinearInterpolator());
+        animator.addUpdateListener(animation -> {
+            progress = (Float) animation.getAnimatedValue();
+            invalidateSelf();
+        });
+        animator.start();
+    }
+
+    public void stop() {
+        if (animator != null) {
+            animator.cancel();
+            animator = null;
+        }
+    }
+
+    /** Stop panning and give back all tiles and the decoder. */
+    public void release() {
+        if (released) return;
+        released = true;
+        stop();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) loader.returnToPool(tiles[i]);
+            tiles[i] = null;
+        }
+        if (spare != null) loader.returnToPool(spare);
+        spare = null;
+        loader.logPanorama("Panorama " + name + " released after " + tilesDecoded + " tile decodes");
+        // Queued behind any tile decodes still running
+        loader.runOnDecodeThread(() -> {
+            try { decoder.recycle(); } catch (Exception ignored) {}
+        });
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (released) return;
+        Rect bounds = getBounds();
+        float offset = offsetFor(progress);
+        int first = firstVisibleTile(progress);
+        int last = lastVisibleTile(progress);
+        float crossLength = (horizontal ? imageH : imageW) * scale;
+        float crossStart = ((horizontal ? viewH : viewW) - crossLength) / 2f;
+
+        canvas.save();
+        canvas.clipRect(bounds);
+        canvas.translate(bounds.left, bounds.top);
+        for (int i = first; i <= last; i++) {
+            Bitmap tile = tiles[i];
+            if (tile == null) continue;
+            Rect src = tileRect(i);
+            float along = (horizontal ? src.left : src.top) * scale - offset;
+            float alongLength = (horizontal ? src.width() : src.height()) * scale;
+            if (horizontal) {
+                dest.set(along, crossStart, along + alongLength, crossStart + crossLength);
+            } else {
+                dest.set(crossStart, along, crossStart + crossLength, along + alongLength);
+            }
+            canvas.drawBitmap(tile, null, dest, paint);
+        }
+        canvas.restore();
+
+        keepTiles(first, Math.min(tiles.length - 1, last + TILES_AHEAD));
+    }
+
+    // Drop tiles outside [first, last] and request the missing ones inside it
+    private void keepTiles(int first, int last) {
+        for (int i = 0; i < tiles.length; i++) {
+            if ((i < first || i > last) && tiles[i] != null) {
+                recycleTile(tiles[i]);
+                tiles[i] = null;
+            }
+        }
+        for (int i = first; i <= last; i++) {
+            if (tiles[i] == null && !pending[i]) requestTile(i);
+        }
+    }
+
+    private void requestTile(final int index) {
+        pending[index] = true;
+        final Bitmap reusable = spare;
+        spare = null;
+        loader.runOnDecodeThread(() -> {
+            final Bitmap tile = released ? null : decodeTile(index, reusable);
+            mainHandler.post(() -> {
+                pending[index] = false;
+                if (released) {
+                    if (tile != null) loader.returnToPool(tile);
+                    if (reusable != null && reusable != tile) loader.returnToPool(reusable);
+                    return;
+                }
+                if (reusable != null && reusable != tile) recycleTile(reusable);
+                if (tile != null) {
+                    tiles[index] = tile;
+                    invalidateSelf();
+                }
+            });
+        });
+    }
+
+    private void recycleTile(Bitmap tile) {
+        if (spare == null && isFullTile(tile)) {
+            spare = tile;
+        } else {
+            loader.returnToPool(tile);
+        }
+    }
+
+    private boolean isFullTile(Bitmap bitmap) {
+        int alongPx = tileSpan / sampleSize;
+        return (horizontal ? bitmap.getWidth() : bitmap.getHeight()) == alongPx;
+    }
+
+    // Runs on the loader thread
+    private Bitmap decodeTile(int index, Bitmap reusable) {
+        Rect rect = tileRect(index);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        boolean fullTile = (horizontal ? rect.width() : rect.height()) == tileSpan;
+        // A reused bitmap keeps its own size, so only full tiles may draw into the spare
+        options.inBitmap = fullTile ? reusable : null;
+        try {
+            Bitmap tile;
+            try {
+                tile = decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) throw e;
+                options.inBitmap = null;
+                tile = decoder.decodeRegion(rect, options);
+            }
+            if (tile != null) tilesDecoded++;
+            return tile;
+        } catch (Exception e) {
+            loader.logPanorama("Tile " + index + " of " + name + " failed: " + e.getMessage());
+            return null;
+        } catch (OutOfMemoryError oom) {
+            loader.logPanorama("Tile " + index + " of " + name + " out of memory");
+            return null;
+        }
+    }
+
+    private Rect tileRect(int index) {
+        int start = index * tileSpan;
+        if (horizontal) return new Rect(start, 0, Math.min(imageW, start + tileSpan), imageH);
+        return new Rect(0, start, imageW, Math.min(imageH, start + tileSpan));
+    }
+
+    // View pixels the image has moved along the pan axis
+    private float offsetFor(float p) {
+        float travel = horizontal ? imageW * scale - viewW : imageH * scale - viewH;
+        return Math.max(0f, travel) * p;
+    }
+
+    private int firstVisibleTile(float p) {
+        int index = (int) (offsetFor(p) / scale / tileSpan);
+        return Math.max(0, Math.min(tiles.length - 1, index));
+    }
+
+    private int lastVisibleTile(float p) {
+        float end = offsetFor(p) + (horizontal ? viewW : viewH);
+        int index = (int) Math.ceil(end / scale / tileSpan) - 1;
+        return Math.max(0, Math.min(tiles.length - 1, index));
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return viewW;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return viewH;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -0,0 +1,219 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of images already fitted to the screen, stored as JPEG in app-internal cache
+ * storage. Pixels are kept in the source's stored orientation and the EXIF orientation is
+ * recorded in the file name, so the rendition is shown through the same view matrix as the
+ * original. Entries are keyed by source path, modification time and target size, so an
+ * edited or replaced photo simply misses and its old rendition ages out. Unlike the in-memory
+ * cache it survives clearCache(), video playback and reboots, and decoding a ~200KB rendition
+ * is far cheaper than decoding a 12-24MP original.
+ *
+ * Eviction is least-recently-used against a byte cap; access order is persisted through the
+ * files' modification times so it carries over a restart.
+ */
+public class RenditionCache {
+    private static final int JPEG_QUALITY = 90;
+    private static final String SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private final long maxBytes;
+    private final LogManager logManager;
+    // key hash -> entry, eldest first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+    private boolean loaded = false;
+    private int hits = 0;
+    private int writes = 0;
+    private int evictions = 0;
+
+    /** A cached rendition and the EXIF orientation it must be shown with. */
+    public static final class Rendition {
+        public final File file;
+        public final int orientation;
+
+        Rendition(File file, int orientation) {
+            this.file = file;
+            this.orientation = orientation;
+        }
+    }
+
+    private static final class Entry {
+        final String fileName;
+        final long size;
+        final int orientation;
+
+        Entry(String fileName, long size, int orientation) {
+            this.fileName = fileName;
+            this.size = size;
+            this.orientation = orientation;
+        }
+    }
+
+    public RenditionCache(File dir, long maxBytes, LogManager logManager) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.logManager = logManager;
+    }
+
+    /** The cached rendition of source at this size, or null if there is none. */
+    public synchronized Rendition get(File source, int targetW, int targetH) {
+        ensureLoaded();
+        String hash = hashFor(source, targetW, targetH);
+        Entry entry = entries.get(hash);
+        if (entry == null) return null;
+        File file = new File(dir, entry.fileName);
+        if (!file.isFile()) {
+            entries.remove(hash);
+            totalBytes -= entry.size;
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        hits++;
+        return new Rendition(file, entry.orientation);
+    }
+
+    /** Whether a rendition of source at this size is indexed, without touching the file. */
+    public synchronized boolean contains(File source, int targetW, int targetH) {
+        ensureLoaded();
+        return entries.containsKey(hashFor(source, targetW, targetH));
+    }
+
+    /**
+     * Store a rendition. Called on a decode thread; the bitmap must stay valid until this
+     * returns. Failures are logged and otherwise ignored.
+     */
+    public void put(File source, int targetW, int targetH, Bitmap bitmap, int orientation) {
+        String hash = hashFor(source, targetW, targetH);
+        String name = ImageOrientation.isNormal(orientation) ? hash + SUFFIX : hash + "_" + orientation + SUFFIX;
+        File temp = new File(dir, name + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                if (entries.containsKey(hash)) return;
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+            OutputStream out = new FileOutputStream(temp);
+            boolean ok;
+            try {
+                ok = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                try { out.close(); } catch (Exception ignored) {}
+            }
+            File file = new File(dir, name);
+            if (!ok || !temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            synchronized (this) {
+                Entry previous = entries.put(hash, new Entry(name, file.length(), orientation));
+                if (previous != null) totalBytes -= previous.size;
+                totalBytes += file.length();
+                writes++;
+                trim();
+            }
+        } catch (Exception e) {
+            temp.delete();
+            logManager.addLog("RenditionCache write failed for " + source.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /** Forget a rendition that turned out to be unreadable so it is written again. */
+    public synchronized void invalidate(File source, int targetW, int targetH) {
+        Entry entry = entries.remove(hashFor(source, targetW, targetH));
+        if (entry != null) {
+            totalBytes -= entry.size;
+            new File(dir, entry.fileName).delete();
+        }
+    }
+
+    public synchronized String stats() {
+        return "renditions " + entries.size() + " (" + (totalBytes / 1024) + "KB), " + hits + " hits, "
+            + writes + " writes, " + evictions + " evicted";
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            new File(dir, eldest.fileName).delete();
+            totalBytes -= eldest.size;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    // Rebuild the LRU order from file times the first time the cache is used
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long ta = a.lastModified();
+                long tb = b.lastModified();
+                return ta < tb ? -1 : (ta == tb ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Left over from an interrupted write
+                file.delete();
+            } else if (name.endsWith(SUFFIX)) {
+                // <hash>.jpg, or <hash>_<orientation>.jpg for images that are not upright as stored
+                String base = name.substring(0, name.length() - SUFFIX.length());
+                int orientation = 0;
+                int sep = base.indexOf('_');
+                if (sep >= 0) {
+                    try {
+                        orientation = Integer.parseInt(base.substring(sep + 1));
+                    } catch (NumberFormatException e) {
+                        file.delete();
+                        continue;
+                    }
+                    base = base.substring(0, sep);
+                }
+                long size = file.length();
+                Entry previous = entries.put(base, new Entry(name, size, orientation));
+                if (previous != null) {
+                    // Older copy of the same rendition
+                    new File(dir, previous.fileName).delete();
+                    totalBytes -= previous.size;
+                }
+                totalBytes += size;
+            }
+        }
+        trim();
+        logManager.addLog("RenditionCache loaded " + entries.size() + " renditions (" + (totalBytes / 1024) + "KB)");
+    }
+
+    private static String hashFor(File source, int targetW, int targetH) {
+        String key = source.getAbsolutePath() + ":" + source.lastModified() + ":" + targetW + "x" + targetH;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode()) + "x" + key.length();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.ViewPropertyAnimator;
+import android.widget.ImageView;
+
+/**
+ * Transitions between consecutive images. The incoming image always goes into the main image
+ * view; the outgoing one moves to a second ImageView stacked above it and is faded or slid away.
+ * Both views render from hardware layers for the length of the animation, so each frame only
+ * composites two textures instead of redrawing the bitmaps. At most two screen-sized bitmaps are
+ * on screen: a transition still running when the next image arrives is finished first.
+ *
+ * Frame intervals during each transition are measured with Choreographer and logged, to confirm
+ * it holds 60fps on the device. Main thread only.
+ */
+public class SlideTransition {
+    public static final String NONE = "none";
+    public static final String CROSSFADE = "crossfade";
+    public static final String SLIDE = "slide";
+
+    // A frame interval above this counts as dropped (1.5 vsyncs at 60Hz)
+    private static final long JANK_NANOS = 25000000L;
+
+    private final ImageView front;
+    private final ImageView back;
+    private final BitmapLoader loader;
+    private final LogManager logManager;
+    private final FrameMonitor frameMonitor = new FrameMonitor();
+    private String style = NONE;
+    private int durationMs = 600;
+    private boolean running = false;
+
+    public SlideTransition(ImageView front, ImageView back, BitmapLoader loader, LogManager logManager) {
+        this.front = front;
+        this.back = back;
+        this.loader = loader;
+        this.logManager = logManager;
+    }
+
+    public void configure(String style, int durationMs) {
+        finish();
+        this.style = CROSSFADE.equals(style) || SLIDE.equals(style) ? style : NONE;
+        this.durationMs = durationMs;
+    }
+
+    /**
+     * Put the next image on screen. setContent must fill the front view. With animate set, a
+     * transition configured and a bitmap currently showing, the current image is carried off on
+     * the back view while the new one appears; otherwise the content is swapped directly.
+     */
+    public void show(Runnable setContent, boolean animate) {
+        finish();
+        Drawable current = front.getDrawable();
+        if (!animate || NONE.equals(style) || back == null || front.getVisibility() != View.VISIBLE
+                || !(current instanceof BitmapDrawable) || ((BitmapDrawable) current).getBitmap() == null) {
+            setContent.run();
+            return;
+        }
+        Bitmap outgoing = ((BitmapDrawable) current).getBitmap();
+        // Held by the back view until the transition ends, so it must not be pooled before then
+        loader.setOutgoingBitmap(outgoing);
+        back.setScaleType(front.getScaleType());
+        if (front.getScaleType() == ImageView.ScaleType.MATRIX) back.setImageMatrix(new Matrix(front.getImageMatrix()));
+        back.setImageBitmap(outgoing);
+        // Carries the brightness set on the front view
+        back.setAlpha(front.getAlpha());
+        back.setTranslationX(0f);
+        back.setVisibility(View.VISIBLE);
+        setContent.run();
+
+        running = true;
+        frameMonitor.start();
+        ViewPropertyAnimator animation = back.animate().setDuration(durationMs).withLayer();
+        if (SLIDE.equals(style)) {
+            int width = front.getWidth();
+            front.setTranslationX(width);
+            front.animate().translationX(0f).setDuration(durationMs).withLayer().start();
+            animation.translationX(-width);
+        } else {
+            animation.alpha(0f);
+        }
+        animation.setListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animator) {
+                end(false);
+            }
+        });
+        animation.start();
+    }
+
+    /** Jump a running transition to its end state, e.g. before a video or a new image. */
+    public void finish() {
+        if (!running) return;
+        end(true);
+        back.animate().cancel();
+        front.animate().cancel();
+        front.setTranslationX(0f);
+    }
+
+    private void end(boolean cutShort) {
+        if (!running) return;
+        running = false;
+        front.setTranslationX(0f);
+        back.setVisibility(View.GONE);
+        back.setImageDrawable(null);
+        back.setTranslationX(0f);
+        loader.setOutgoingBitmap(null);
+        logManager.addLog("Transition " + style + " (" + durationMs + "ms" + (cutShort ? ", cut short" : "")
+            + "): " + frameMonitor.stop());
+    }
+
+    // Intervals between the frames drawn while a transition runs
+    private static final class FrameMonitor implements Choreographer.FrameCallback {
+        private boolean active = false;
+        private long lastFrameNanos;
+        private int frames;
+        private int dropped;
+        private long totalNanos;
+        private long maxNanos;
+
+        void start() {
+            lastFrameNanos = 0;
+            frames = 0;
+            dropped = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            active = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!active) return;
+            if (lastFrameNanos > 0) {
+                long interval = frameTimeNanos - lastFrameNanos;
+                frames++;
+                totalNanos += interval;
+                maxNanos = Math.max(maxNanos, interval);
+                if (interval > JANK_NANOS) dropped++;
+            }
+            lastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        String stop() {
+            active = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            if (frames == 0) return "no frames";
+            double avgMs = totalNanos / 1e6 / frames;
+            return frames + " frames, avg " + String.format("%.1f", avgMs) + "ms (" + String.format("%.1f", 1000 / avgMs)
+                + "fps), max " + String.format("%.1f", maxNanos / 1e6) + "ms, " + dropped + " dropped";
+        }
+    }
+}
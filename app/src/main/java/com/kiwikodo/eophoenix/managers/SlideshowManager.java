@@ -1,17 +1,16 @@
 package com.kiwikodo.eophoenix.managers;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.media.MediaMetadataRetriever;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
 import android.view.View;
 import android.widget.ImageView;
 import android.util.DisplayMetrics;
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.DefaultLoadControl;
-import com.google.android.exoplayer2.ExoPlayer;
-import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.PlaybackException;
 import com.google.android.exoplayer2.ui.PlayerView;
@@ -20,8 +19,9 @@ import com.kiwikodo.eophoenix.R;
 import com.kiwikodo.eophoenix.Settings;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
 
 public class SlideshowManager {
     private final Activity activity;
@@ -30,30 +30,84 @@ public class SlideshowManager {
     private final BrightnessManager brightnessManager;
     private final SettingsManager settingsManager;
     
-    private List<MediaFile> shuffledMediaList = new ArrayList<>();
+    // Play order as catalog slots; MediaFile objects are only created for the item being shown
+    private final IntArray playOrder = new IntArray();
+    // Slots currently in playOrder, so streamed catalog diffs never queue a file twice
+    private final BitSet queuedSlots = new BitSet();
+    private int playOrderGeneration = -1;
     private ImageView mediaView;
-    private ExoPlayer exoPlayer;
+    // One player for the whole presentation; its events come back tagged with the slide token
+    private VideoPlayer videoPlayer;
     private PlayerView playerView;
     private int currentIndex = 0;
     private int screenWidth;
     private int screenHeight;
-    private boolean isPlayingFullLengthVideo = false;
     private boolean isRunning = false;
     private boolean cleanupInProgress = false;
-    private Handler slideshowHandler;
-    private Runnable slideshowRunnable;
-    private Handler periodicCheckHandler = new Handler();
-    private Runnable periodicCheckRunnable;
-    private Handler loopTimeoutHandler = new Handler();
-    private Runnable loopTimeoutRunnable;
-    private Handler videoDurationHandler = new Handler();
-    private Runnable videoDurationRunnable;    
-    private Handler brightnessDebugHandler = new Handler();
-    private Runnable brightnessDebugRunnable;
+
+    /** What the slideshow is doing; changed only on the main thread, by handleEvent and the display paths. */
+    private enum State {
+        IDLE, LOADING, SHOWING_IMAGE, PREPARING_VIDEO, PLAYING, SLEEPING
+    }
+
+    /**
+     * Everything that happens later (timers, player callbacks) arrives as one of these on the
+     * single main-thread handler, so transitions are applied one at a time.
+     */
+    private enum Event {
+        // Startup delay elapsed: switch to the presentation layout
+        SHOW_VIEWS(false),
+        // Move on to the next item
+        ADVANCE(true),
+        VIDEO_READY(true),
+        // The video's first frame is drawn; the poster can go
+        VIDEO_FIRST_FRAME(true),
+        VIDEO_ENDED(true),
+        VIDEO_ERROR(true),
+        PREPARE_TIMEOUT(true),
+        // Near the end of an image slide: load the next item if it is a video
+        PRELOAD_VIDEO(true),
+        // Poll for media while the library is empty
+        MEDIA_CHECK(false),
+        BRIGHTNESS_DEBUG(false);
+
+        // Slide-scoped events are dropped once the slide they were raised for has ended
+        final boolean slideScoped;
+
+        Event(boolean slideScoped) {
+            this.slideScoped = slideScoped;
+        }
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    // Repetitions queued for a looping video whatever its length; the slide timer ends it first
+    private static final int MAX_LOOP_COUNT = 10000;
+    private final Handler handler = new Handler(Looper.getMainLooper(), this::handleMessage);
+    private State state = State.IDLE;
+    // Bumped whenever the current slide ends; slide-scoped events carry the token they were raised under
+    private int slideToken = 0;
+    private int staleEvents = 0;
+    private boolean waitingForMedia = false;
+    private String currentMediaName;
     private boolean isBrightnessDebugging = false;
     private BitmapLoader bitmapLoader;
-    private Bitmap currentBitmap;
+    // Outstanding image load; cancelled when the slide changes so a late decode cannot replace it
+    private BitmapLoader.Ticket imageTicket;
+    // Panorama being panned in mediaView; touched on the UI thread only
+    private PanoramaDrawable currentPanorama;
+    // Crossfade/slide between images; null until the presentation views exist
+    private SlideTransition slideTransition;
+    // Set when a new image slide starts, so only its first image animates in (UI thread)
+    private boolean slideChanging = false;
+    private AnimatedImagePlayer animatedPlayer;
+    // Opening frames of videos, kept in the rendition cache; null when disabled or there is no cache
+    private VideoPosters videoPosters;
+    // A video slide is still waiting for its first frame, so a poster that arrives may be shown (UI thread)
+    private boolean posterWanted = false;
     private android.view.View dimOverlay;
+    // Opaque layer between the player and the images, shown while a video is preloaded behind them
+    private android.view.View videoCover;
+    private final Random random = new Random();
     
     // Method to start/stop brightness debugging
     public void toggleBrightnessDebugging(boolean enable) {
@@ -67,47 +121,41 @@ public class SlideshowManager {
     }
     
     private void startBrightnessDebugging() {
-        if (brightnessDebugRunnable != null) {
-            brightnessDebugHandler.removeCallbacks(brightnessDebugRunnable);
-        }
-        
-        brightnessDebugRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (isBrightnessDebugging && isRunning) {
-                    // Get comprehensive brightness info from BrightnessManager
-                    String brightnessInfo = brightnessManager.getActualBrightnessInfo();
-                    logManager.addLog("BRIGHTNESS DEBUG: " + brightnessInfo);
-                    
-                    // Check current media state
-                    boolean isShowingVideo = playerView != null && 
-                                            playerView.getVisibility() == View.VISIBLE;
-                    boolean isShowingImage = mediaView != null && 
-                                            mediaView.getVisibility() == View.VISIBLE;
-                    
-                    // Log current media state
-                    if (isShowingVideo) {
-                        logManager.addLog("BRIGHTNESS DEBUG: Currently showing video");
-                        
-                        // Add ExoPlayer state if available
-                        if (exoPlayer != null) {
-                            logManager.addLog("BRIGHTNESS DEBUG: Video playback state: " + 
-                                getPlaybackStateString(exoPlayer.getPlaybackState()));
-                        }
-                    } else if (isShowingImage) {
-                        logManager.addLog("BRIGHTNESS DEBUG: Currently showing image");
-                    } else {
-                        logManager.addLog("BRIGHTNESS DEBUG: No media currently visible");
-                    }
-                    
-                    // Continue debugging every 5 seconds
-                    brightnessDebugHandler.postDelayed(this, 5000);
+        handler.removeMessages(Event.BRIGHTNESS_DEBUG.ordinal());
+        schedule(Event.BRIGHTNESS_DEBUG, 0);
+        logManager.addLog("Brightness debugging started");
+    }
+
+    private void logBrightnessDebug() {
+        if (isBrightnessDebugging && isRunning) {
+            // Get comprehensive brightness info from BrightnessManager
+            String brightnessInfo = brightnessManager.getActualBrightnessInfo();
+            logManager.addLog("BRIGHTNESS DEBUG: " + brightnessInfo);
+            
+            // Check current media state
+            boolean isShowingVideo = playerView != null && 
+                                    playerView.getVisibility() == View.VISIBLE;
+            boolean isShowingImage = mediaView != null && 
+                                    mediaView.getVisibility() == View.VISIBLE;
+            
+            // Log current media state
+            if (isShowingVideo) {
+                logManager.addLog("BRIGHTNESS DEBUG: Currently showing video");
+                
+                // Add ExoPlayer state if available
+                if (videoPlayer.hasPlayer()) {
+                    logManager.addLog("BRIGHTNESS DEBUG: Video playback state: " + 
+                        getPlaybackStateString(videoPlayer.getPlaybackState()));
                 }
+            } else if (isShowingImage) {
+                logManager.addLog("BRIGHTNESS DEBUG: Currently showing image");
+            } else {
+                logManager.addLog("BRIGHTNESS DEBUG: No media currently visible");
             }
-        };
-        
-        brightnessDebugHandler.post(brightnessDebugRunnable);
-        logManager.addLog("Brightness debugging started");
+            
+            // Continue debugging every 5 seconds
+            schedule(Event.BRIGHTNESS_DEBUG, 5000);
+        }
     }
     
     private String getPlaybackStateString(int state) {
@@ -121,13 +169,112 @@ public class SlideshowManager {
     }
     
     private void stopBrightnessDebugging() {
-        if (brightnessDebugRunnable != null) {
-            brightnessDebugHandler.removeCallbacks(brightnessDebugRunnable);
-            brightnessDebugRunnable = null;
-        }
+        handler.removeMessages(Event.BRIGHTNESS_DEBUG.ordinal());
         logManager.addLog("Brightness debugging stopped");
     }
 
+    // Post an event for the current slide
+    private void schedule(Event event, long delayMs) {
+        handler.sendMessageDelayed(handler.obtainMessage(event.ordinal(), slideToken, 0), delayMs);
+    }
+
+    // Post an event raised for the slide identified by token; safe from any thread
+    private void dispatch(Event event, int token) {
+        handler.sendMessage(handler.obtainMessage(event.ordinal(), token, 0));
+    }
+
+    private boolean handleMessage(Message msg) {
+        Event event = EVENTS[msg.what];
+        if (event.slideScoped && msg.arg1 != slideToken) {
+            // Raised for a slide that has already ended, e.g. a second advance for the same video
+            staleEvents++;
+            logManager.addLog("Dropped stale " + event + " in state " + state + " (" + staleEvents + " so far)");
+            return true;
+        }
+        try {
+            handleEvent(event);
+        } catch (Exception e) {
+            logManager.addLog("Error handling " + event + " in state " + state + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void handleEvent(Event event) {
+        switch (event) {
+            case SHOW_VIEWS:
+                showPresentationViews();
+                break;
+            case ADVANCE:
+                advance();
+                break;
+            case VIDEO_READY:
+                // READY repeats after every rebuffer; only the first one starts the slide
+                if (state == State.PREPARING_VIDEO) {
+                    setState(State.PLAYING);
+                    long videoDuration = videoPlayer.getDuration();
+                    logManager.addLog("Video playback started successfully: " + currentMediaName
+                        + " (" + (videoDuration / 1000) + "s)");
+                }
+                break;
+            case VIDEO_FIRST_FRAME:
+                hidePoster();
+                break;
+            case VIDEO_ENDED:
+                if (state == State.PLAYING || state == State.PREPARING_VIDEO) {
+                    logManager.addLog("Video playback completed naturally");
+                    advance();
+                }
+                break;
+            case VIDEO_ERROR:
+                advance();
+                break;
+            case PREPARE_TIMEOUT:
+                if (state == State.PREPARING_VIDEO) {
+                    logManager.addLog("Video prepare timeout for " + currentMediaName + " - skipping");
+                    advance();
+                }
+                break;
+            case PRELOAD_VIDEO:
+                if (state == State.SHOWING_IMAGE || state == State.LOADING) preloadNextVideo();
+                break;
+            case MEDIA_CHECK:
+                checkForMediaAndResume();
+                break;
+            case BRIGHTNESS_DEBUG:
+                logBrightnessDebug();
+                break;
+        }
+    }
+
+    private void setState(State next) {
+        if (state == next) return;
+        logManager.addLog("Slideshow state " + state + " -> " + next);
+        state = next;
+    }
+
+    // Drop every pending slide timer, player callback and media poll
+    private void cancelPendingEvents() {
+        slideToken++;
+        waitingForMedia = false;
+        for (Event event : EVENTS) {
+            if (event.slideScoped || event == Event.MEDIA_CHECK) handler.removeMessages(event.ordinal());
+        }
+    }
+
+    // Videos are loaded with their slide token as media id
+    private static int tokenFor(String mediaId) {
+        try {
+            return Integer.parseInt(mediaId);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    // Images, animations and panoramas stay up for the slideshow delay (configured in minutes)
+    private long slideDelayMs() {
+        return settingsManager.getCurrentSettings().getSlideshowDelay() * 60 * 1000L;
+    }
+
 
 
     public SlideshowManager(Activity activity, LogManager logManager, 
@@ -140,10 +287,71 @@ public class SlideshowManager {
         this.settingsManager = settingsManager;
         
         initializeScreenDimensions();
-        slideshowHandler = new Handler();
         bitmapLoader = new BitmapLoader(activity, logManager);
+        animatedPlayer = new AnimatedImagePlayer(bitmapLoader, logManager);
+        videoPlayer = new VideoPlayer(activity, logManager, new VideoPlayer.Listener() {
+            @Override
+            public void onReady(String mediaId) {
+                dispatch(Event.VIDEO_READY, tokenFor(mediaId));
+            }
+
+            @Override
+            public void onEnded(String mediaId) {
+                dispatch(Event.VIDEO_ENDED, tokenFor(mediaId));
+            }
+
+            @Override
+            public void onFirstFrame(String mediaId) {
+                dispatch(Event.VIDEO_FIRST_FRAME, tokenFor(mediaId));
+            }
+
+            @Override
+            public void onError(String mediaId, PlaybackException error) {
+                logManager.addLog("Video error - skipping to next item: " + error.getMessage());
+                dispatch(Event.VIDEO_ERROR, tokenFor(mediaId));
+            }
+        });
+        if (mediaManager != null) {
+            mediaManager.setMediaChangeListener(this::onMediaChanged);
+        }
     }
     
+    // Screen-sized renditions live in the app cache dir and are shared across runs
+    private void configureBitmapLoader() {
+        try {
+            Settings current = settingsManager.getCurrentSettings();
+            bitmapLoader.setExactSizeDecode(current == null || current.isExactSizeDecode());
+            bitmapLoader.setProgressivePreview(current == null || current.isProgressivePreview());
+            bitmapLoader.setPanoramaPan(current == null || current.isPanoramaPan());
+            int cacheMB = current != null ? current.getRenditionCacheMB() : 64;
+            RenditionCache renditions = cacheMB > 0
+                ? new RenditionCache(new File(activity.getCacheDir(), "renditions"), cacheMB * 1024L * 1024L, logManager)
+                : null;
+            bitmapLoader.setRenditionCache(renditions);
+            // Posters are renditions of the video file, so the loader finds them like any image
+            videoPosters = renditions != null && (current == null || current.isVideoPosters())
+                ? new VideoPosters(renditions, screenWidth, screenHeight, logManager)
+                : null;
+            if (mediaManager != null) mediaManager.setVideoPosters(videoPosters);
+        } catch (Exception e) {
+            logManager.addLog("Error configuring bitmap loader: " + e.getMessage());
+        }
+    }
+
+    // Playback profile for local files; takes effect when the player is next built
+    private void configureVideoPlayer() {
+        try {
+            Settings current = settingsManager.getCurrentSettings();
+            if (current == null) return;
+            videoPlayer.setBufferProfile(current.getVideoMinBufferMs(), current.getVideoMaxBufferMs(),
+                current.getVideoBufferForPlaybackMs(), current.getVideoBackBufferMs());
+            videoPlayer.setAudioEnabled(current.isVideoAudio());
+            videoPlayer.setPreferHardwareDecoder(current.isPreferHardwareDecoder());
+        } catch (Exception e) {
+            logManager.addLog("Error configuring video player: " + e.getMessage());
+        }
+    }
+
     private void initializeScreenDimensions() {
         DisplayMetrics displayMetrics = new DisplayMetrics();
         activity.getWindowManager().getDefaultDisplay().getMetrics(displayMetrics);
@@ -155,59 +363,69 @@ public class SlideshowManager {
         try {        
             isRunning = true;    
             // Check MediaManager status
-            if (mediaManager == null || mediaManager.getMediaFiles() == null) {
+            if (mediaManager == null || mediaManager.getCatalog() == null) {
                 logManager.addLog("MediaManager not properly initialized");
                 return;
             }
             
             // Prepare everything before view switch
             logManager.addLog("Preparing slideshow components");
+            configureBitmapLoader();
+            configureVideoPlayer();
             
-            new Handler().postDelayed(() -> {
-                try {
-                    // Now switch the view after delay
-                    logManager.addLog("Switching to presentation view");
-                    activity.setContentView(R.layout.activity_view);
-                    
-                    // Find and validate views
-                    ImageView mediaView = activity.findViewById(R.id.imageView);
-                    PlayerView playerView = activity.findViewById(R.id.playerView);
-                    android.view.View dimOverlay = activity.findViewById(R.id.dimOverlay);
-                    
-                    if (mediaView == null || playerView == null) {
-                        logManager.addLog("Error: Required views not found in layout");
-                        return;
-                    }
-                    
-                    // Store the PlayerView reference and dim overlay
-                    this.playerView = playerView;
-                    this.mediaView = mediaView;
-                    // Inform BrightnessManager about the dim overlay
-                    try { 
-                        brightnessManager.setViews(mediaView, playerView, dimOverlay);
-                        this.dimOverlay = dimOverlay;
-                    } catch (Exception ignored) {}
-                    
-                    logManager.addLog("Views initialized successfully");
-
-                    startSlideshow();
-                    
-                } catch (Exception e) {
-                    logManager.addLog("Error during view transition: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }, settingsManager.getCurrentSettings().getStartupDelay() * 1000L);
+            handler.removeMessages(Event.SHOW_VIEWS.ordinal());
+            schedule(Event.SHOW_VIEWS, settingsManager.getCurrentSettings().getStartupDelay() * 1000L);
         } catch (Exception e) {
             logManager.addLog("Critical error in initializeSlideshow: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    private void showPresentationViews() {
+        try {
+            // Now switch the view after delay
+            logManager.addLog("Switching to presentation view");
+            activity.setContentView(R.layout.activity_view);
+            
+            // Find and validate views
+            ImageView mediaView = activity.findViewById(R.id.imageView);
+            PlayerView playerView = activity.findViewById(R.id.playerView);
+            android.view.View dimOverlay = activity.findViewById(R.id.dimOverlay);
+            
+            if (mediaView == null || playerView == null) {
+                logManager.addLog("Error: Required views not found in layout");
+                return;
+            }
+            
+            // Store the PlayerView reference and dim overlay
+            this.playerView = playerView;
+            this.mediaView = mediaView;
+            this.videoCover = activity.findViewById(R.id.videoCover);
+            slideTransition = new SlideTransition(mediaView,
+                (ImageView) activity.findViewById(R.id.imageViewOutgoing), bitmapLoader, logManager);
+            slideTransition.configure(settingsManager.getCurrentSettings().getTransition(),
+                settingsManager.getCurrentSettings().getTransitionDurationMs());
+            // Inform BrightnessManager about the dim overlay
+            try { 
+                brightnessManager.setViews(mediaView, playerView, dimOverlay);
+                this.dimOverlay = dimOverlay;
+            } catch (Exception ignored) {}
+            
+            logManager.addLog("Views initialized successfully");
+
+            startSlideshow();
+            
+        } catch (Exception e) {
+            logManager.addLog("Error during view transition: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
         
     public void startSlideshow() {
         try {
             logManager.addLog("Setting up media view");
             brightnessManager.setViews(mediaView, playerView);
-            setupExoPlayer();
+            videoPlayer.attach(playerView);
             prepareMediaList();
             startMediaRotation();
         } catch (Exception e) {
@@ -215,36 +433,24 @@ public class SlideshowManager {
         }
     }    
 
-    private void setupExoPlayer() {
-        if (exoPlayer == null) {
-            exoPlayer = new ExoPlayer.Builder(activity).build();
-            playerView.setPlayer(exoPlayer);
-            
-            // Hide player controls
-            playerView.setUseController(false);
-            
-            // Configure player behavior
-            exoPlayer.setPlayWhenReady(true);
-            
-            logManager.addLog("ExoPlayer initialized");
-        }
-    }
-
     private void prepareMediaList() {
         try {
-            List<MediaFile> mediaFiles = mediaManager.getMediaFiles();
-            if (mediaFiles == null || mediaFiles.isEmpty()) {
+            MediaCatalogView catalog = mediaManager.getCatalog();
+            // Rebuild the order in place from the live catalog; no list copies
+            playOrderGeneration = catalog.getGeneration();
+            catalog.copyLiveSlots(playOrder);
+            queuedSlots.clear();
+            for (int i = 0; i < playOrder.size(); i++) {
+                queuedSlots.set(playOrder.get(i));
+            }
+            if (playOrder.isEmpty()) {
                 logManager.addLog("No media files available");
                 return;
             }
-    
-            // Clear and reload our working copy
-            shuffledMediaList.clear();
-            shuffledMediaList.addAll(mediaFiles);
             
             if (settingsManager.getCurrentSettings().isShuffle()) {
-                Collections.shuffle(shuffledMediaList);
-                logManager.addLog("Media files shuffled: " + shuffledMediaList.size() + " files");
+                playOrder.shuffle(random);
+                logManager.addLog("Media files shuffled: " + playOrder.size() + " files");
             }
         } catch (Exception e) {
             logManager.addLog("Error in prepareMediaList: " + e.getMessage());
@@ -252,70 +458,78 @@ public class SlideshowManager {
     }   
 
     private void startMediaRotation() {
-        if (slideshowRunnable != null) {
-            slideshowHandler.removeCallbacks(slideshowRunnable);
-        }
-        
-        slideshowRunnable = new Runnable() {
-            @Override
-            public void run() {
-                // Skip to next media only if we're not playing a full-length video
-                if (!isPlayingFullLengthVideo) {
-                    displayNextMedia();
-                    // Convert from minutes to milliseconds: minutes * 60 seconds/minute * 1000 ms/second
-                    int delay = settingsManager.getCurrentSettings().getSlideshowDelay() * 60 * 1000;
-                    slideshowHandler.postDelayed(this, delay);
-                } else {
-                    // If we're playing a full-length video, the video completion handler
-                    // will call moveToNextMedia(), which will restart this timer
-                    logManager.addLog("Slideshow timer paused - waiting for full-length video to complete");
-                }
-            }
-        };
+        // Whatever the previous run left scheduled no longer applies
+        cancelPendingEvents();
         
         // Only start rotation if the slideshow is in running state
         if (isRunning) {
-            slideshowHandler.post(slideshowRunnable);
+            schedule(Event.ADVANCE, 0);
         } else {
             logManager.addLog("Slideshow rotation suppressed because isRunning=false");
         }
     }
 
+    /**
+     * End the current slide and show the next item. The slide token changes first, so timers and
+     * player callbacks still pending for the old slide are dropped when they arrive.
+     */
+    private void advance() {
+        slideToken++;
+        if (state == State.PREPARING_VIDEO || state == State.PLAYING) {
+            if (isRunning) logManager.addLog("Ending video " + currentMediaName + " in state " + state);
+            // Paused rather than stopped: a following video swaps in without tearing down the decoder
+            videoPlayer.pause();
+        }
+        displayNextMedia();
+    }
+
     private void displayNextMedia() {
         if (!isRunning) {
             logManager.addLog("displayNextMedia skipped because slideshow is paused");
             return;
         }
 
-        if (shuffledMediaList.isEmpty()) {
-            // Reload the list if it's empty (first run or SD card was removed)
+        MediaCatalogView catalog = mediaManager.getCatalog();
+        if (playOrder.isEmpty() || playOrderGeneration != catalog.getGeneration()) {
+            // Reload the order if it's empty (first run or SD card was removed) or a rescan replaced the catalog
+            currentIndex = 0;
             prepareMediaList();
             
-            if (shuffledMediaList.isEmpty()) {
+            if (playOrder.isEmpty()) {
                 // Still empty after trying to reload
                 logManager.addLog("No media files to display - SD card may have been removed");
+                logManager.addLog("Slideshow paused until media becomes available");
+                setState(State.IDLE);
                 
-                // Stop the slideshow loop to prevent repeated messages
-                if (slideshowHandler != null && slideshowRunnable != null) {
-                    slideshowHandler.removeCallbacks(slideshowRunnable);
-                    logManager.addLog("Slideshow paused until media becomes available");
-                    
-                    // Check every 5 seconds if media has become available again
-                    if (isRunning) {
-                        periodicCheckRunnable = this::checkForMediaAndResume;
-                        periodicCheckHandler.postDelayed(periodicCheckRunnable, 5000);
-                    }
+                // Check every 5 seconds if media has become available again
+                if (isRunning) {
+                    waitingForMedia = true;
+                    schedule(Event.MEDIA_CHECK, 5000);
                 }
                 return;
             }
         }
         
-        if (currentIndex >= shuffledMediaList.size()) {
+        if (currentIndex >= playOrder.size()) {
             currentIndex = 0;
             prepareMediaList(); // Reshuffle if enabled
         }
         
-        MediaFile mediaFile = shuffledMediaList.get(currentIndex++);
+        // Slots removed since the order was built resolve to null; skip past them
+        MediaFile mediaFile = null;
+        while (mediaFile == null && currentIndex < playOrder.size()) {
+            mediaFile = catalog.get(playOrder.get(currentIndex++));
+        }
+        if (mediaFile == null) {
+            // Everything left in this pass was removed; start the next pass right away
+            currentIndex = 0;
+            prepareMediaList();
+            if (!playOrder.isEmpty()) mediaFile = catalog.get(playOrder.get(currentIndex++));
+            if (mediaFile == null) {
+                schedule(Event.ADVANCE, slideDelayMs());
+                return;
+            }
+        }
         if (!isRunning) {
             logManager.addLog("Aborting displayNextMedia after selecting media because isRunning=false");
             return;
@@ -325,26 +539,99 @@ public class SlideshowManager {
             logManager.addLog("Displaying media: " + mediaFile.getName());
         } catch (Exception e) {
             logManager.addLog("Error displaying media: " + e.getMessage());
-            slideshowHandler.post(slideshowRunnable); // Skip to next media
+            moveToNextMedia(); // Skip to next media
+        }
+        prefetchUpcoming();
+    }    
+
+    /**
+     * Ask the BitmapLoader to decode the next few images of the play order while the current
+     * slide is on screen. Videos in between are skipped; the lookahead window is bounded so a
+     * long run of videos does not turn into a scan of the whole order.
+     */
+    private void prefetchUpcoming() {
+        try {
+            Settings current = settingsManager.getCurrentSettings();
+            int count = current != null ? current.getPrefetchCount() : 2;
+            if (count <= 0 || bitmapLoader == null) return;
+            MediaCatalogView catalog = mediaManager.getCatalog();
+            List<File> upcoming = new ArrayList<>(count);
+            int end = Math.min(playOrder.size(), currentIndex + count * 4);
+            for (int i = currentIndex; i < end && upcoming.size() < count; i++) {
+                int slot = playOrder.get(i);
+                if (catalog.getType(slot) == MediaManager.MediaType.IMAGE) {
+                    upcoming.add(new File(catalog.getPath(slot)));
+                } else if (catalog.getType(slot) == MediaManager.MediaType.VIDEO) {
+                    preparePoster(new File(catalog.getPath(slot)));
+                }
+            }
+            bitmapLoader.prefetch(upcoming, screenWidth, screenHeight);
+        } catch (Exception e) {
+            logManager.addLog("Error scheduling prefetch: " + e.getMessage());
+        }
+    }
+
+    // Videos indexed before posters were enabled get theirs shortly before they come up
+    private void preparePoster(final File video) {
+        final VideoPosters posters = videoPosters;
+        if (posters == null || !posters.claim(video)) return;
+        bitmapLoader.runInBackground(() -> posters.extract(video, null));
+    }
+
+    /**
+     * Apply a catalog diff (streaming scan, prober or folder watcher) to the play order without
+     * reshuffling what has already been shown. New slots are dropped at a random position among
+     * the items not yet played.
+     */
+    private void onMediaChanged(int generation, IntArray addedSlots, IntArray removedSlots) {
+        if (!isRunning || generation != playOrderGeneration) {
+            // prepareMediaList() rebuilds the order from the catalog on the next start or reload
+            return;
+        }
+        for (int r = 0; r < removedSlots.size(); r++) {
+            int slot = removedSlots.get(r);
+            if (!queuedSlots.get(slot)) continue;
+            queuedSlots.clear(slot);
+            int i = playOrder.indexOf(slot);
+            if (i < 0) continue;
+            playOrder.removeAt(i);
+            if (i < currentIndex) currentIndex--;
+        }
+        boolean shuffle = settingsManager.getCurrentSettings() != null && settingsManager.getCurrentSettings().isShuffle();
+        for (int a = 0; a < addedSlots.size(); a++) {
+            int slot = addedSlots.get(a);
+            // Already part of the snapshot taken by prepareMediaList()
+            if (queuedSlots.get(slot)) continue;
+            queuedSlots.set(slot);
+            int position = playOrder.size();
+            if (shuffle && currentIndex < position) {
+                position = currentIndex + random.nextInt(position - currentIndex + 1);
+            }
+            playOrder.insert(position, slot);
+        }
+        logManager.addLog("Play queue updated: +" + addedSlots.size() + " / -" + removedSlots.size()
+            + " (" + playOrder.size() + " items)");
+
+        // If we were idling because the folder was empty, resume right away instead of waiting for the next poll
+        if (waitingForMedia && !playOrder.isEmpty()) {
+            handler.removeMessages(Event.MEDIA_CHECK.ordinal());
+            checkForMediaAndResume();
         }
     }    
 
     private void checkForMediaAndResume() {
         if (!isRunning) {
             logManager.addLog("Canceling media check as slideshow is stopped");
+            waitingForMedia = false;
             return; // Don't schedule another check if we're not running
         }
         
-        List<MediaFile> mediaFiles = mediaManager.getMediaFiles();
-        if (!mediaFiles.isEmpty()) {
+        if (mediaManager.getCatalog().size() > 0) {
             logManager.addLog("Media files detected - resuming slideshow");
+            waitingForMedia = false;
             startMediaRotation();
         } else {
-            // Only keep checking if we're still running
-            if (isRunning) {
-                periodicCheckRunnable = this::checkForMediaAndResume;
-                periodicCheckHandler.postDelayed(periodicCheckRunnable, 5000);
-            }
+            schedule(Event.MEDIA_CHECK, 5000);
         }
     }
 
@@ -361,47 +648,45 @@ public class SlideshowManager {
     
             String fileName = mediaFile.getName();
             String filePath = mediaFile.getFile().getAbsolutePath();
+            currentMediaName = fileName;
             
             // Check if the file is a video
             if (mediaFile.isVideo()) {
-                // Resolution checking
-                MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-                try {
-                    retriever.setDataSource(filePath);
-                    String width = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
-                    String height = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+                // Resolution comes from the scan-time metadata cache; no probing on the UI thread
+                MediaIndex.Entry metadata = mediaFile.getMetadata();
+                if (metadata != null && metadata.width > 0 && metadata.height > 0) {
+                    long pixels = (long) metadata.width * metadata.height;
                     
-                    if (width != null && height != null) {
-                        int w = Integer.parseInt(width);
-                        int h = Integer.parseInt(height);
-                        long pixels = (long)w * h;
-                        
-                        logManager.addLog("Processing video: " + fileName + " (" + w + "x" + h + ")");
-                        
-                        // Skip videos with resolution higher than the configured maximum
-                        if (pixels > settingsManager.getCurrentSettings().getMaxVideoPixels()) {
-                            logManager.addLog("RESOLUTION TOO HIGH: Skipping " + fileName);
-                            slideshowHandler.removeCallbacks(slideshowRunnable);
-                            slideshowHandler.post(slideshowRunnable);
-                            return;
-                        }
+                    logManager.addLog("Processing video: " + fileName + " (" + metadata.width + "x" + metadata.height
+                        + ", " + (metadata.durationMs / 1000) + "s"
+                        + (metadata.rotationDegrees != 0 ? ", rotated " + metadata.rotationDegrees : "")
+                        + (metadata.codecMime != null ? ", " + metadata.codecMime : "")
+                        + (metadata.bitrate > 0 ? ", " + (metadata.bitrate / 1000) + "kbps" : "") + ")");
+                    
+                    // Skip videos with resolution higher than the configured maximum
+                    if (pixels > settingsManager.getCurrentSettings().getMaxVideoPixels()) {
+                        logManager.addLog("RESOLUTION TOO HIGH: Skipping " + fileName);
+                        moveToNextMedia();
+                        return;
                     }
-                } catch (Exception e) {
-                    logManager.addLog("Error checking video resolution: " + e.getMessage());
-                } finally {
-                    try {
-                        retriever.release();
-                    } catch (Exception ignored) {}
                 }
                 
                 displayVideo(mediaFile);
             } else {
-                displayImage(mediaFile);
+                // Images need no decoder; let the player give its memory back
+                videoPlayer.stop();
+                setState(State.LOADING);
+                schedule(Event.ADVANCE, slideDelayMs());
+                schedulePreload();
+                if (mediaFile.getType() == MediaManager.MediaType.ANIMATED) {
+                    displayAnimated(mediaFile);
+                } else {
+                    displayImage(mediaFile);
+                }
             }
         } catch (Exception e) {
             logManager.addLog("Error in displayMedia: " + e.getMessage());
-            slideshowHandler.removeCallbacks(slideshowRunnable);
-            slideshowHandler.post(slideshowRunnable);
+            moveToNextMedia();
         }
     }
         
@@ -410,71 +695,238 @@ public class SlideshowManager {
             String filePath = mediaFile.getFile().getAbsolutePath();
             
             File f = mediaFile.getFile();
+            cancelImageLoad();
+            stopAnimation();
+            slideChanging = true;
             // Use the BitmapLoader to decode and cache
-            bitmapLoader.load(f, screenWidth, screenHeight, new BitmapLoader.Callback() {
-                @Override
-                public void onSuccess(Bitmap bitmap, boolean fromCache) {
-                    try {
-                        // Recycle previous non-cached bitmap if necessary
-                        if (currentBitmap != null && !currentBitmap.isRecycled()) {
-                            // If it is the same instance as cached, don't recycle
-                            if (currentBitmap != bitmap) {
-                                try { currentBitmap.recycle(); } catch (Exception ignored) {}
-                            }
+            imageTicket = bitmapLoader.load(f, screenWidth, screenHeight, new ImageCallback(mediaFile));
+        } catch (OutOfMemoryError oom) {
+            logManager.addLog("Out of memory error: " + oom.getMessage());
+        } catch (Exception e) {
+            logManager.addLog("Error in displayImage: " + e.getMessage());
+        }
+    }
+    
+    private class ImageCallback implements BitmapLoader.PreviewCallback, BitmapLoader.PanoramaCallback {
+        private final MediaFile mediaFile;
+
+        ImageCallback(MediaFile mediaFile) {
+            this.mediaFile = mediaFile;
+        }
+
+        @Override
+        public void onPreview(Bitmap preview, int orientation) {
+            // Same fitted bounds as the full image, so the later swap does not jump
+            showBitmap(preview, orientation, "Preview set while decoding " + mediaFile.getName());
+        }
+
+        @Override
+        public void onSuccess(Bitmap bitmap, int orientation, boolean fromCache) {
+            showBitmap(bitmap, orientation, "Bitmap set successfully (cached=" + fromCache + ")");
+        }
+
+        @Override
+        public void onPanorama(PanoramaDrawable panorama) {
+            showPanorama(panorama, mediaFile.getName());
+        }
+
+        @Override
+        public void onError(Exception e) {
+            logManager.addLog("BitmapLoader error: " + e.getMessage());
+        }
+    }
+
+    private void showBitmap(Bitmap bitmap, int orientation, String logMessage) {
+        try {
+            activity.runOnUiThread(() -> {
+                try {
+                    if (mediaView != null) {
+                        revealImageView();
+                        releasePanorama();
+                        // A preview's full image replaces it in place; only a new slide animates
+                        boolean animate = slideChanging;
+                        slideChanging = false;
+                        Runnable setContent = () -> {
+                            // EXIF orientation is applied by the view matrix, not a rotated copy
+                            ImageOrientation.apply(mediaView, bitmap, orientation, screenWidth, screenHeight);
+                            bitmapLoader.setDisplayedBitmap(bitmap);
+                        };
+                        if (slideTransition != null) {
+                            slideTransition.show(setContent, animate);
+                        } else {
+                            setContent.run();
                         }
-                        currentBitmap = bitmap;
-
-                        activity.runOnUiThread(() -> {
-                            try {
-                                if (mediaView != null) {
-                                    // Hide player and overlay when showing images
-                                    if (playerView != null) {
-                                        try {
-                                            playerView.setPlayer(null);
-                                        } catch (Exception ignored) {}
-                                        playerView.setVisibility(View.GONE);
-                                    }
-                                    if (dimOverlay != null) {
-                                        dimOverlay.setVisibility(android.view.View.GONE);
-                                    }
-
-                                    mediaView.setVisibility(View.VISIBLE);
-                                    mediaView.setImageBitmap(bitmap);
-                                    logManager.addLog("Bitmap set successfully (cached=" + fromCache + ")");
-                                } else {
-                                    logManager.addLog("MediaView is null");
-                                }
-                            } catch (Exception e) {
-                                logManager.addLog("Error setting bitmap: " + e.getMessage());
-                            }
-                        });
-                    } catch (Exception e) {
-                        logManager.addLog("Error in bitmap callback: " + e.getMessage());
+                        if (state == State.LOADING) setState(State.SHOWING_IMAGE);
+                        logManager.addLog(logMessage);
+                    } else {
+                        logManager.addLog("MediaView is null");
                     }
+                } catch (Exception e) {
+                    logManager.addLog("Error setting bitmap: " + e.getMessage());
                 }
+            });
+        } catch (Exception e) {
+            logManager.addLog("Error in bitmap callback: " + e.getMessage());
+        }
+    }
+
+    // Called on the UI thread: hide the player and overlay when showing images
+    private void revealImageView() {
+        if (playerView != null) {
+            playerView.setVisibility(View.GONE);
+        }
+        if (videoCover != null) videoCover.setVisibility(View.GONE);
+        if (dimOverlay != null) {
+            dimOverlay.setVisibility(android.view.View.GONE);
+        }
+        mediaView.setVisibility(View.VISIBLE);
+    }
 
-                @Override
-                public void onError(Exception e) {
-                    logManager.addLog("BitmapLoader error: " + e.getMessage());
+    // Load a following video shortly before this image slide ends, so it can start on time
+    private void schedulePreload() {
+        Settings current = settingsManager.getCurrentSettings();
+        long leadMs = (current != null ? current.getVideoPreloadSeconds() : 5) * 1000L;
+        if (leadMs > 0) schedule(Event.PRELOAD_VIDEO, Math.max(0, slideDelayMs() - leadMs));
+    }
+
+    /**
+     * If the next item is a playable video, load it paused behind the current image: the player
+     * view goes under the image with an opaque cover between them, so neither its shutter nor its
+     * first frame shows until displayVideo() reveals it.
+     */
+    private void preloadNextVideo() {
+        try {
+            if (!isRunning || playerView == null || currentIndex >= playOrder.size()) return;
+            MediaCatalogView catalog = mediaManager.getCatalog();
+            int slot = playOrder.get(currentIndex);
+            if (catalog.getType(slot) != MediaManager.MediaType.VIDEO) return;
+            MediaFile next = catalog.get(slot);
+            if (next == null) return;
+            MediaIndex.Entry metadata = next.getMetadata();
+            long fileSizeKB = (metadata != null ? metadata.size : next.getFile().length()) / 1024;
+            if (fileSizeKB > settingsManager.getCurrentSettings().getMaxVideoSizeKB()) return;
+
+            // Same room for the player's buffers that displayVideo() makes
+            try {
+                if (bitmapLoader != null) bitmapLoader.trim(0.5f, "video preload");
+            } catch (Exception ignored) {}
+            if (videoCover != null) videoCover.setVisibility(View.VISIBLE);
+            playerView.setVisibility(View.VISIBLE);
+            videoPlayer.preload(next.getFile(), settingsManager.getCurrentSettings().isLoopVideos()
+                ? loopPlanFor(next, settingsManager.getCurrentSettings().getSlideshowDelay() * 60 * 1000L) : null);
+        } catch (Exception e) {
+            logManager.addLog("Error preloading next video: " + e.getMessage());
+        }
+    }
+
+    private void displayAnimated(MediaFile mediaFile) {
+        try {
+            cancelImageLoad();
+            activity.runOnUiThread(() -> {
+                try {
+                    if (mediaView == null) {
+                        logManager.addLog("MediaView is null");
+                        return;
+                    }
+                    // Frames replace each other in place, so animations cut in and out
+                    if (slideTransition != null) slideTransition.finish();
+                    slideChanging = false;
+                    animatedPlayer.start(mediaFile.getFile(), mediaView, screenWidth, screenHeight,
+                        new AnimatedImagePlayer.Callback() {
+                            @Override
+                            public void onFirstFrame() {
+                                revealImageView();
+                                releasePanorama();
+                                // The still image that was on screen can go back to the pool
+                                bitmapLoader.setDisplayedBitmap(null);
+                                if (state == State.LOADING) setState(State.SHOWING_IMAGE);
+                                logManager.addLog("Animated image set for " + mediaFile.getName());
+                            }
+
+                            @Override
+                            public void onError(Exception e) {
+                                logManager.addLog("Cannot animate " + mediaFile.getName() + ", showing it as a still: " + e.getMessage());
+                                displayImage(mediaFile);
+                            }
+                        });
+                } catch (Exception e) {
+                    logManager.addLog("Error starting animation: " + e.getMessage());
                 }
             });
-        } catch (OutOfMemoryError oom) {
-            logManager.addLog("Out of memory error: " + oom.getMessage());
         } catch (Exception e) {
-            logManager.addLog("Error in displayImage: " + e.getMessage());
+            logManager.addLog("Error in displayAnimated: " + e.getMessage());
         }
     }
-    
+
+    private void stopAnimation() {
+        if (animatedPlayer == null) return;
+        activity.runOnUiThread(() -> {
+            try {
+                animatedPlayer.stop();
+            } catch (Exception e) {
+                logManager.addLog("Error stopping animation: " + e.getMessage());
+            }
+        });
+    }
+
+    // Called on the UI thread; the panorama pans across the image for the length of the slide
+    private void showPanorama(PanoramaDrawable panorama, String name) {
+        try {
+            if (mediaView == null) {
+                panorama.release();
+                logManager.addLog("MediaView is null");
+                return;
+            }
+            revealImageView();
+            if (slideTransition != null) slideTransition.finish();
+            slideChanging = false;
+            releasePanorama();
+            currentPanorama = panorama;
+            mediaView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+            mediaView.setImageDrawable(panorama);
+            bitmapLoader.setDisplayedBitmap(null);
+            panorama.start(slideDelayMs());
+            if (state == State.LOADING) setState(State.SHOWING_IMAGE);
+            logManager.addLog("Panorama set for " + name);
+        } catch (Exception e) {
+            logManager.addLog("Error setting panorama: " + e.getMessage());
+        }
+    }
+
+    // Called on the UI thread
+    private void releasePanorama() {
+        if (currentPanorama == null) return;
+        try {
+            if (mediaView != null && mediaView.getDrawable() == currentPanorama) mediaView.setImageDrawable(null);
+            currentPanorama.release();
+        } catch (Exception e) {
+            logManager.addLog("Error releasing panorama: " + e.getMessage());
+        }
+        currentPanorama = null;
+    }
+
+    private void cancelImageLoad() {
+        if (imageTicket != null) {
+            imageTicket.cancel();
+            imageTicket = null;
+        }
+    }
+
     private void displayVideo(MediaFile mediaFile) {
         try {
+            cancelImageLoad();
             String filePath = mediaFile.getFile().getAbsolutePath();
             // Convert from minutes to milliseconds: minutes * 60 seconds/minute * 1000 ms/second
             final int slideshowDelay = settingsManager.getCurrentSettings().getSlideshowDelay() * 60 * 1000;
             final boolean shouldLoopVideos = settingsManager.getCurrentSettings().isLoopVideos();
             final boolean allowFullLengthVideos = settingsManager.getCurrentSettings().isAllowFullLengthVideos();
+            setState(State.PREPARING_VIDEO);
+            // Player callbacks for this video are only honoured while it is still the current slide
+            final int token = slideToken;
             
-            // Double-check file size again for safety
-            long fileSizeKB = mediaFile.getFile().length() / 1024;
+            // Double-check file size again for safety (cached at scan time, no stat on the UI thread)
+            MediaIndex.Entry metadata = mediaFile.getMetadata();
+            long fileSizeKB = (metadata != null ? metadata.size : mediaFile.getFile().length()) / 1024;
             int maxVideoSizeKB = settingsManager.getCurrentSettings().getMaxVideoSizeKB();
             if (fileSizeKB > maxVideoSizeKB) {
                 logManager.addLog("Safety check: Skipping large video file: " +
@@ -483,239 +935,130 @@ public class SlideshowManager {
                 return;
             }
             
+            // With a poster the current picture stays up until the poster or the first frame replaces it
+            final boolean poster = videoPosters != null && videoPosters.has(mediaFile.getFile());
             activity.runOnUiThread(() -> {
                 try {
                     // Clean up memory before attempting to play
-                    if (mediaView != null) {
-                        mediaView.setImageBitmap(null);
-                        mediaView.setVisibility(View.GONE);
-                    }
+                    if (slideTransition != null) slideTransition.finish();
+                    if (animatedPlayer != null) animatedPlayer.stop();
+                    releasePanorama();
+                    posterWanted = poster;
+                    if (!poster) hidePoster();
                     
-                    // Clear bitmap cache before playing videos to free memory deterministically
+                    // Make room for the player's buffers without throwing away the whole image cache
                     try {
-                        if (bitmapLoader != null) bitmapLoader.clearCache();
+                        if (bitmapLoader != null) bitmapLoader.trim(0.5f, "video start");
                     } catch (Exception ignored) {}
                     
                     playerView.setVisibility(View.VISIBLE);
+                    if (videoCover != null) videoCover.setVisibility(View.GONE);
                     
-                    // Release any existing player
-                    releaseExoPlayer();
-                    
-                    // Reuse or create ExoPlayer instance
-                    if (exoPlayer == null) {
-                        exoPlayer = new ExoPlayer.Builder(activity).build();
-                        playerView.setPlayer(exoPlayer);
-                        exoPlayer.setPlayWhenReady(true);
-                        logManager.addLog("ExoPlayer created/reused");
-                    } else {
-                        // ensure playerView has the current player
-                        playerView.setPlayer(exoPlayer);
-                        logManager.addLog("ExoPlayer reused for new video");
-                    }
-                    
-                    // Set up a timeout for video preparation
-                    final Handler timeoutHandler = new Handler();
-                    timeoutHandler.postDelayed(() -> {
-                        isPlayingFullLengthVideo = false; // Reset flag in case of timeout
-                        releaseExoPlayer();
-                        moveToNextMedia();
-                    }, 5000); // 5 second timeout
-                    
-                    // Use a DefaultDataSourceFactory + ProgressiveMediaSource for file playback
-                    try {
-                        android.net.Uri uri = android.net.Uri.fromFile(new File(filePath));
-                        // DefaultDataSourceFactory is available via ExoPlayer util
-            com.google.android.exoplayer2.upstream.DefaultDataSource.Factory dataSourceFactory =
-                new com.google.android.exoplayer2.upstream.DefaultDataSource.Factory(activity);
-
-                        com.google.android.exoplayer2.source.MediaSource mediaSource =
-                                new com.google.android.exoplayer2.source.ProgressiveMediaSource.Factory(dataSourceFactory)
-                                        .createMediaSource(MediaItem.fromUri(uri));
-
-                        // Stop current playback and prepare new media
-                        exoPlayer.stop();
-                        exoPlayer.clearMediaItems();
-                        exoPlayer.setRepeatMode(shouldLoopVideos ? Player.REPEAT_MODE_ALL : Player.REPEAT_MODE_OFF);
-                        exoPlayer.setMediaSource(mediaSource, /* resetPosition= */ true);
-                        exoPlayer.prepare();
-                        exoPlayer.setPlayWhenReady(true);
-                    } catch (Exception e) {
-                        logManager.addLog("Error preparing media source: " + e.getMessage());
-                        releaseExoPlayer();
-                        moveToNextMedia();
-                        return;
-                    }
-
-                    // Prepare timeout watchdog: use settings value if present
+                    // Give up on videos that never become ready
                     int prepareTimeoutMs = 15000; // default 15s
                     try { prepareTimeoutMs = settingsManager.getCurrentSettings().getVideoPrepareTimeoutMs(); } catch (Exception ignored) {}
-                    final Handler prepareWatchdog = new Handler();
-                    final Runnable watchdogRunnable = () -> {
-                        logManager.addLog("Video prepare watchdog fired for " + mediaFile.getName());
-                        // if not ready, release and move on
-                        if (exoPlayer != null && exoPlayer.getPlaybackState() != Player.STATE_READY) {
-                            releaseExoPlayer();
-                            moveToNextMedia();
-                        }
-                    };
-                    prepareWatchdog.postDelayed(watchdogRunnable, prepareTimeoutMs);
-                    
-                    // Get video duration handler - for non-looping videos
-                    final Handler videoDurationHandler = new Handler();
+                    schedule(Event.PREPARE_TIMEOUT, prepareTimeoutMs);
                     
-                    // Set up error listener
-                    exoPlayer.addListener(new Player.Listener() {
-                        @Override
-                        public void onPlaybackStateChanged(int state) {
-                            if (state == Player.STATE_READY) {
-                                // Cancel the timeout since playback started successfully
-                                    timeoutHandler.removeCallbacksAndMessages(null);
-                                    prepareWatchdog.removeCallbacks(watchdogRunnable);
-                                
-                                // Set the flag if this is a full-length video
-                                if (!shouldLoopVideos && allowFullLengthVideos) {
-                                    long videoDuration = exoPlayer.getDuration();
-                                    if (videoDuration > slideshowDelay) {
-                                        isPlayingFullLengthVideo = true;
-                                        logManager.addLog("Playing full-length video: " + 
-                                            mediaFile.getName() + " (" + (videoDuration/1000) + "s)");
-                                    }
-                                }
-                                
-                                logManager.addLog("Video playback started successfully: " + mediaFile.getName());
-                                
-                                // If not allowing full-length videos AND not looping,
-                                // set up a timer based on slideshow delay
-                                if (!shouldLoopVideos && !allowFullLengthVideos) {
-                                    long videoDuration = exoPlayer.getDuration();
-                                    logManager.addLog("Video length: " + (videoDuration/1000) + "s, Slideshow delay: " +
-                                                    (slideshowDelay/1000) + "s");
-                                    
-                                    // Only set a timer if video is longer than slideshow delay
-                                    if (videoDuration > slideshowDelay) {
-                                        // Cancel any existing timeout
-                                        if (videoDurationRunnable != null) {
-                                            videoDurationHandler.removeCallbacks(videoDurationRunnable);
-                                        }
-                                        
-                                        videoDurationRunnable = () -> {
-                                            // Only log if we're still running
-                                            if (isRunning) {
-                                                logManager.addLog("Slideshow delay reached - cutting video short");
-                                            }
-                                            isPlayingFullLengthVideo = false;
-                                            releaseExoPlayer();
-                                            moveToNextMedia();
-                                        };
-                                        
-                                        videoDurationHandler.postDelayed(videoDurationRunnable, slideshowDelay);
-                                    }
-                                }
-                                
-                            } else if (state == Player.STATE_ENDED && !shouldLoopVideos) {
-                                // Cancel any pending duration handler
-                                videoDurationHandler.removeCallbacksAndMessages(null);
-                                
-                                logManager.addLog("Video playback completed naturally");
-                                // Reset the flag when video ends
-                                isPlayingFullLengthVideo = false;
-                                releaseExoPlayer();
-                                moveToNextMedia();
-                            }
-                        }
-                        
-                        @Override
-                        public void onPlayerError(PlaybackException error) {
-                            timeoutHandler.removeCallbacksAndMessages(null);
-                            videoDurationHandler.removeCallbacksAndMessages(null);
-                            logManager.addLog("Video error - skipping to next item: " + error.getMessage());
-                            // Reset the flag in case of error
-                            isPlayingFullLengthVideo = false;
-                            releaseExoPlayer();
-                            moveToNextMedia();
-                        }
-                    });
-                    
-                    // Start playback
-                    exoPlayer.prepare();
-                    
-                    // Set timer for loop mode
-                    if (shouldLoopVideos) {
-                        // Cancel any existing timeout
-                        if (loopTimeoutRunnable != null) {
-                            loopTimeoutHandler.removeCallbacks(loopTimeoutRunnable);
-                        }
-                        
-                        loopTimeoutRunnable = () -> {
-                            // Only log if we're still running
-                            if (isRunning) {
-                                logManager.addLog("Loop mode timeout - moving to next item");
-                            }
-                            isPlayingFullLengthVideo = false; // Reset flag when timer completes
-                            releaseExoPlayer();
-                            moveToNextMedia();
-                        };
-                        
-                        loopTimeoutHandler.postDelayed(loopTimeoutRunnable, slideshowDelay);
+                    // Looping videos, and videos not allowed to run to the end, get the normal slide time
+                    if (shouldLoopVideos || !allowFullLengthVideos) {
+                        schedule(Event.ADVANCE, slideshowDelay);
+                    } else {
+                        logManager.addLog("Full-length video allowed: " + mediaFile.getName());
                     }
                     
+                    // Switch the long-lived player to this video; its events carry this slide's token
+                    videoPlayer.play(new File(filePath), String.valueOf(token),
+                        shouldLoopVideos ? loopPlanFor(mediaFile, slideshowDelay) : null);
+                    if (poster) showPoster(mediaFile.getFile(), token);
+                    
                 } catch (Exception e) {
                     logManager.addLog("Video setup error - skipping: " + e.getMessage());
-                    isPlayingFullLengthVideo = false; // Reset flag in case of exception
-                    releaseExoPlayer();
+                    stopVideo();
                     moveToNextMedia();
                 }
             });
         } catch (Exception e) {
             logManager.addLog("General video error - skipping: " + e.getMessage());
-            isPlayingFullLengthVideo = false; // Reset flag in case of exception
             moveToNextMedia();
         }
     }
     
-    // Helper methods for cleaner code
-    private void releaseExoPlayer() {
-        try {
-            if (exoPlayer != null) {
-                exoPlayer.stop();
-                exoPlayer.release();
-                exoPlayer = null;
+    /**
+     * How to loop mediaFile for playMs: the clip set for it in loopClips, repeated enough times to
+     * outlast the slide (one spare), or without limit when the probed duration is unknown.
+     */
+    private VideoPlayer.LoopPlan loopPlanFor(MediaFile mediaFile, long playMs) {
+        Settings current = settingsManager.getCurrentSettings();
+        long clipStart = 0;
+        long clipEnd = 0;
+        String clip = current.getLoopClips().get(mediaFile.getName());
+        if (clip != null) {
+            try {
+                int dash = clip.indexOf('-');
+                String start = (dash >= 0 ? clip.substring(0, dash) : clip).trim();
+                String end = dash >= 0 ? clip.substring(dash + 1).trim() : "";
+                clipStart = start.isEmpty() ? 0 : Long.parseLong(start);
+                clipEnd = end.isEmpty() ? 0 : Long.parseLong(end);
+                if (clipEnd > 0 && clipEnd <= clipStart) throw new IllegalArgumentException("end before start");
+            } catch (Exception e) {
+                logManager.addLog("Ignoring loop clip \"" + clip + "\" for " + mediaFile.getName() + ": " + e.getMessage());
+                clipStart = 0;
+                clipEnd = 0;
             }
-        } catch (Exception e) {
-            logManager.addLog("Error releasing player: " + e.getMessage());
         }
+        MediaIndex.Entry metadata = mediaFile.getMetadata();
+        long duration = metadata != null ? metadata.durationMs : 0;
+        long loopMs = (clipEnd > 0 ? Math.min(clipEnd, duration > 0 ? duration : clipEnd) : duration) - clipStart;
+        int loopCount = loopMs > 0 ? (int) Math.min(MAX_LOOP_COUNT, playMs / loopMs + 2) : Integer.MAX_VALUE;
+        return new VideoPlayer.LoopPlan(loopCount, clipStart, clipEnd, current.isGaplessLoop());
     }
 
-    private boolean isVideoResolutionTooHigh(String filePath) {
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        try {
-            retriever.setDataSource(filePath);
-            String width = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
-            String height = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
-            
-            if (width != null && height != null) {
-                int w = Integer.parseInt(width);
-                int h = Integer.parseInt(height);
-                
-                // Calculate total pixels
-                long pixels = (long)w * h;
-                
-                // Limit to 921,600 pixels (equivalent to 1280×720)
-                return pixels > 921600;
+    /**
+     * Load the poster for video and put it in the image view, above the player, unless the
+     * video's first frame beats it there. Runs on the UI thread.
+     */
+    private void showPoster(final File video, final int token) {
+        imageTicket = bitmapLoader.load(video, screenWidth, screenHeight, new BitmapLoader.Callback() {
+            @Override
+            public void onSuccess(Bitmap bitmap, int orientation, boolean fromCache) {
+                if (token != slideToken || !posterWanted || mediaView == null) return;
+                mediaView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+                mediaView.setImageBitmap(bitmap);
+                mediaView.setVisibility(View.VISIBLE);
+                bitmapLoader.setDisplayedBitmap(bitmap);
+                logManager.addLog("Poster shown for " + video.getName() + (fromCache ? " (cached)" : ""));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                logManager.addLog("Poster unavailable for " + video.getName() + ": " + e.getMessage());
             }
+        });
+    }
+
+    // Clear the image view for video playback: the poster, or the picture left from the last slide
+    private void hidePoster() {
+        posterWanted = false;
+        cancelImageLoad();
+        if (mediaView != null) {
+            mediaView.setImageBitmap(null);
+            mediaView.setVisibility(View.GONE);
+        }
+        if (bitmapLoader != null) bitmapLoader.setDisplayedBitmap(null);
+    }
+
+    // Helper methods for cleaner code
+    private void stopVideo() {
+        try {
+            videoPlayer.stop();
         } catch (Exception e) {
-            logManager.addLog("Error checking video resolution: " + e.getMessage());
-        } finally {
-            try {
-                retriever.release();
-            } catch (Exception ignored) {}
+            logManager.addLog("Error stopping player: " + e.getMessage());
         }
-        return false;
     }
-        
+
+    // Skip the current item; an advance already pending for it is dropped as stale
     private void moveToNextMedia() {
-        slideshowHandler.removeCallbacks(slideshowRunnable);
-        slideshowHandler.postDelayed(slideshowRunnable, 100);
+        schedule(Event.ADVANCE, 100);
     }
     
     private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
@@ -751,88 +1094,46 @@ public class SlideshowManager {
             // Set running flag to false first to prevent any new operations
             isRunning = false;
             
-            // Immediately cancel any periodic checks
-            if (periodicCheckHandler != null && periodicCheckRunnable != null) {
-                periodicCheckHandler.removeCallbacks(periodicCheckRunnable);
-                periodicCheckRunnable = null;
-            }
-            
-            // Immediately cancel any slideshow tasks
-            if (slideshowHandler != null && slideshowRunnable != null) {
-                slideshowHandler.removeCallbacks(slideshowRunnable);
-                slideshowRunnable = null; // Make sure it can't be reused
-            }
-    
-            // Clean up brightness debugging (uncomment and keep this)
-            if (brightnessDebugHandler != null) {
-                brightnessDebugHandler.removeCallbacksAndMessages(null);
-                brightnessDebugRunnable = null;
-            }
+            // Drop pending image decodes; the card they read from is going away
+            try {
+                if (bitmapLoader != null) bitmapLoader.cancelAll();
+            } catch (Exception ignored) {}
+
+            // Immediately cancel slide timers, player callbacks, media checks and brightness debugging
+            cancelPendingEvents();
+            handler.removeCallbacksAndMessages(null);
+            setState(State.IDLE);
     
             // Force video playback to stop immediately
             try {
-                if (exoPlayer != null) {
-                    exoPlayer.setPlayWhenReady(false);
-                    exoPlayer.stop();
-                    exoPlayer.release();
-                    exoPlayer = null;
-                    logManager.addLog("ExoPlayer released successfully");
-                    
-                    // Make sure PlayerView is detached properly
-                    if (playerView != null) {
-                        playerView.setPlayer(null);
-                    }
-                }
+                videoPlayer.release();
             } catch (Exception e) {
                 logManager.addLog("Error releasing ExoPlayer: " + e.getMessage());
             }
 
-            // Explicitly clear any pending operations on all handlers
-            try {
-                if (slideshowHandler != null) {
-                    slideshowHandler.removeCallbacksAndMessages(null);
-                }
-                if (periodicCheckHandler != null) {
-                    periodicCheckHandler.removeCallbacksAndMessages(null);
-                }
-                if (loopTimeoutHandler != null) {
-                    loopTimeoutHandler.removeCallbacksAndMessages(null);
-                    loopTimeoutRunnable = null;
-                }
-                if (videoDurationHandler != null) {
-                    videoDurationHandler.removeCallbacksAndMessages(null);
-                    videoDurationRunnable = null;
-                }
-            } catch (Exception e) {
-                logManager.addLog("Error cleaning handlers: " + e.getMessage());
-            }
-            
             // Safely clear lists
             try {
-                if (shuffledMediaList != null) {
-                    shuffledMediaList.clear();
-                }
+                playOrder.clear();
+                queuedSlots.clear();
+                playOrderGeneration = -1;
             } catch (Exception e) {
                 logManager.addLog("Error clearing media list: " + e.getMessage());
             }
             
             // Reset variables
             currentIndex = 0;
-            isPlayingFullLengthVideo = false;
             
             // Clear image references safely
             try {
                 if (mediaView != null) {
                     activity.runOnUiThread(() -> {
                         try {
+                            if (slideTransition != null) slideTransition.finish();
+                            if (animatedPlayer != null) animatedPlayer.shutdown();
+                            releasePanorama();
                             mediaView.setImageBitmap(null);
-                            // Recycle the current bitmap if it is not cached
-                            try {
-                                if (currentBitmap != null && !currentBitmap.isRecycled()) {
-                                    try { currentBitmap.recycle(); } catch (Exception ignored) {}
-                                    currentBitmap = null;
-                                }
-                            } catch (Exception ignored) {}
+                            // Hand the bitmap back to the loader rather than recycling it here
+                            if (bitmapLoader != null) bitmapLoader.setDisplayedBitmap(null);
                             logManager.addLog("MediaView bitmap cleared");
                         } catch (Exception e) {
                             logManager.addLog("Error clearing mediaView: " + e.getMessage());
@@ -873,19 +1174,23 @@ public class SlideshowManager {
         try {
             logManager.addLog("Pausing slideshow for sleep");
             // Stop rotation
-            if (slideshowHandler != null && slideshowRunnable != null) {
-                slideshowHandler.removeCallbacks(slideshowRunnable);
-            }
+            cancelPendingEvents();
+            setState(State.SLEEPING);
+            // Outstanding image loads would otherwise show up on the black screen
+            try {
+                if (bitmapLoader != null) bitmapLoader.cancelAll();
+            } catch (Exception ignored) {}
             // Pause ExoPlayer if present
             try {
-                if (exoPlayer != null) {
-                    exoPlayer.setPlayWhenReady(false);
-                }
+                videoPlayer.pause();
             } catch (Exception ignored) {}
 
             // Hide UI elements to present a black screen
             activity.runOnUiThread(() -> {
                 try {
+                    if (slideTransition != null) slideTransition.finish();
+                    if (animatedPlayer != null) animatedPlayer.stop();
+                    releasePanorama();
                     if (mediaView != null) mediaView.setVisibility(View.GONE);
                     if (playerView != null) playerView.setVisibility(View.GONE);
                     if (dimOverlay != null) dimOverlay.setVisibility(View.VISIBLE);
@@ -921,6 +1226,35 @@ public class SlideshowManager {
         }
     }
 
+    /**
+     * Forwarded from the activity's onTrimMemory. Images are trimmed in proportion to the level;
+     * an idle player (asleep, idle or behind an image, with no preload loaded or scheduled) is
+     * released under heavy pressure and recreated on the next video. A player that is preparing
+     * or playing the current video is never released, even while it rebuffers.
+     */
+    public void onTrimMemory(int level) {
+        try {
+            if (bitmapLoader != null) bitmapLoader.onTrimMemory(level);
+            boolean heavy = level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+            if (heavy && videoPlayer.hasPlayer() && isPlayerIdle()) {
+                logManager.addLog("Releasing idle ExoPlayer on trim level " + level);
+                videoPlayer.release();
+            }
+        } catch (Exception e) {
+            logManager.addLog("Error handling trim level " + level + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isPlayerIdle() {
+        if (state != State.SLEEPING && state != State.IDLE && state != State.SHOWING_IMAGE) return false;
+        return !videoPlayer.hasPreload() && !handler.hasMessages(Event.PRELOAD_VIDEO.ordinal());
+    }
+
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
     public void resetCleanupGuard() {
         cleanupInProgress = false;
     }
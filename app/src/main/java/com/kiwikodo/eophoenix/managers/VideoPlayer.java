@@ -0,0 +1,554 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.audio.AudioRendererEventListener;
+import com.google.android.exoplayer2.audio.AudioSink;
+import com.google.android.exoplayer2.decoder.DecoderReuseEvaluation;
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.metadata.MetadataOutput;
+import com.google.android.exoplayer2.text.TextOutput;
+import com.google.android.exoplayer2.ui.PlayerView;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The slideshow's one ExoPlayer. It is built once when the presentation starts and switches
+ * videos with setMediaItem, so the playback thread, renderers, buffers and surface survive from
+ * clip to clip and consecutive videos of the same format keep their decoder. It is only released
+ * on cleanup or under memory pressure, and rebuilt on the next video.
+ *
+ * Each item carries a media id chosen by the caller; the single listener reports events with the
+ * id of the item they belong to, so the caller can ignore events for items it has moved past.
+ * Decoder setup and time to first frame are logged for every switch.
+ *
+ * preload() loads the next video paused while an image is still on screen, so it is buffered
+ * and its first frame decoded by the time its slot comes; play() on the same file then only has
+ * to start the clock. A preloaded item reports nothing to the listener until play() claims it.
+ *
+ * The player is built for local files rather than streaming: it buffers a few seconds instead
+ * of ExoPlayer's network-sized defaults, keeps no back buffer, builds no audio, text or metadata
+ * renderers unless audio is enabled, and tries hardware decoders before software ones, falling
+ * back if one fails to start. The profile is set before the player is built and logged with it.
+ *
+ * Looped videos are queued as a playlist of copies of one item on a single timeline, optionally
+ * clipped to a start and end point, so the next repetition is buffered before the loop point and
+ * the decoder carries straight on. Long or unlimited loops repeat a playlist of MAX_QUEUED_LOOPS. Rebuffering stalls and dropped frames are
+ * counted per loop; loops that were not seamless are logged, and every video ends with a summary.
+ *
+ * Main thread only.
+ */
+public class VideoPlayer {
+    public interface Listener {
+        void onReady(String mediaId);
+        void onEnded(String mediaId);
+        // The first frame of the item is on the surface
+        void onFirstFrame(String mediaId);
+        void onError(String mediaId, PlaybackException error);
+    }
+
+    // Media id of an item loaded by preload() and not yet claimed by play()
+    private static final String PRELOAD_ID = "preload";
+    // Copies of a looping item put in the playlist; more repetitions come from repeating the whole list
+    private static final int MAX_QUEUED_LOOPS = 32;
+
+    /**
+     * How a looping video is played: loopCount repetitions (Integer.MAX_VALUE for no limit) of
+     * the part between clipStartMs and clipEndMs (0 for the file's own start or end). Without
+     * gapless the player's repeat mode is used instead of a playlist of repetitions.
+     */
+    public static final class LoopPlan {
+        final int loopCount;
+        final long clipStartMs;
+        final long clipEndMs;
+        final boolean gapless;
+
+        public LoopPlan(int loopCount, long clipStartMs, long clipEndMs, boolean gapless) {
+            this.loopCount = Math.max(1, loopCount);
+            this.clipStartMs = Math.max(0, clipStartMs);
+            this.clipEndMs = Math.max(0, clipEndMs);
+            this.gapless = gapless;
+        }
+
+        boolean sameAs(LoopPlan other) {
+            return other != null && loopCount == other.loopCount && clipStartMs == other.clipStartMs
+                && clipEndMs == other.clipEndMs && gapless == other.gapless;
+        }
+
+        @Override
+        public String toString() {
+            return (gapless ? (loopCount == Integer.MAX_VALUE ? "gapless, unlimited" : "gapless x" + loopCount) : "repeat mode")
+                + (clipStartMs > 0 || clipEndMs > 0 ? ", clip " + clipStartMs + "-" + (clipEndMs > 0 ? clipEndMs : "end") + "ms" : "");
+        }
+    }
+
+    private final Context context;
+    private final LogManager logManager;
+    private final Listener listener;
+    private final PlayerListener playerListener = new PlayerListener();
+    private ExoPlayer player;
+    private PlayerView view;
+    // Uptime of the last play() call, for time to first frame
+    private long switchStartMs;
+    private boolean firstFrameSeen;
+    private String decoderSetup;
+    private int playersBuilt = 0;
+    private int switches = 0;
+    private int decoderInits = 0;
+    private long decoderInitTotalMs = 0;
+    private int decoderReuses = 0;
+    // File loaded by preload(), and the media id play() gave it once claimed
+    private String preloadPath;
+    private String claimedId;
+    private long preloadStartMs;
+    private boolean preloadReadyLogged;
+    private int preloadsStarted = 0;
+    private int preloadsUsed = 0;
+    private LoopPlan preloadPlan;
+    // Stall and frame-drop accounting for the video being played
+    private String itemName;
+    private boolean itemLooping;
+    private int loopIndex;
+    private int cleanLoops;
+    private long stallStartMs;
+    private int loopStalls;
+    private long loopStallMs;
+    private int loopDropped;
+    private int itemStalls;
+    private long itemStallMs;
+    private int itemDropped;
+    // Playback profile, applied when the player is built
+    private int minBufferMs = 2000;
+    private int maxBufferMs = 5000;
+    private int bufferForPlaybackMs = 500;
+    private int backBufferMs = 0;
+    private boolean audioEnabled = false;
+    private boolean preferHardwareDecoder = true;
+
+    public VideoPlayer(Context context, LogManager logManager, Listener listener) {
+        this.context = context;
+        this.logManager = logManager;
+        this.listener = listener;
+    }
+
+    /**
+     * Buffer targets for the next player built. maxBufferMs is raised to minBufferMs and
+     * bufferForPlaybackMs lowered to it where needed, as DefaultLoadControl requires.
+     */
+    public void setBufferProfile(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int backBufferMs) {
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = Math.max(minBufferMs, maxBufferMs);
+        this.bufferForPlaybackMs = Math.min(bufferForPlaybackMs, minBufferMs);
+        this.backBufferMs = backBufferMs;
+    }
+
+    public void setAudioEnabled(boolean audioEnabled) {
+        this.audioEnabled = audioEnabled;
+    }
+
+    public void setPreferHardwareDecoder(boolean preferHardwareDecoder) {
+        this.preferHardwareDecoder = preferHardwareDecoder;
+    }
+
+    /** Show playback in view and build the player if there is none yet. */
+    public void attach(PlayerView view) {
+        this.view = view;
+        view.setUseController(false);
+        ensurePlayer();
+    }
+
+    private ExoPlayer ensurePlayer() {
+        if (player == null) {
+            long start = SystemClock.uptimeMillis();
+            DefaultLoadControl loadControl = new DefaultLoadControl.Builder()
+                .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackMs)
+                .setBackBuffer(backBufferMs, /* retainBackBufferFromKeyframe= */ false)
+                .build();
+            DefaultRenderersFactory renderersFactory = new LocalRenderersFactory(context, audioEnabled)
+                .setMediaCodecSelector(preferHardwareDecoder ? new HardwareFirstSelector(logManager) : MediaCodecSelector.DEFAULT)
+                .setEnableDecoderFallback(true);
+            player = new ExoPlayer.Builder(context, renderersFactory)
+                .setLoadControl(loadControl)
+                .build();
+            player.addListener(playerListener);
+            player.addAnalyticsListener(playerListener);
+            playersBuilt++;
+            logManager.addLog("ExoPlayer built in " + (SystemClock.uptimeMillis() - start) + "ms (#" + playersBuilt + "): buffer "
+                + minBufferMs + "-" + maxBufferMs + "ms, start after " + bufferForPlaybackMs + "ms, back buffer " + backBufferMs
+                + "ms, " + (audioEnabled ? "with audio" : "video only") + ", "
+                + (preferHardwareDecoder ? "hardware decoders first" : "default decoder order"));
+        }
+        if (view != null && view.getPlayer() != player) view.setPlayer(player);
+        return player;
+    }
+
+    /**
+     * Start playing file, once or looped as loop describes (null plays it once). If it is the
+     * preloaded item with the same plan it starts where it is, otherwise it replaces whatever is
+     * loaded.
+     */
+    public void play(File file, String mediaId, LoopPlan loop) {
+        ExoPlayer exoPlayer = ensurePlayer();
+        finishItem();
+        switches++;
+        startItem(file.getName(), loop != null);
+        if (isPreloaded(file, loop)) {
+            claimedId = mediaId;
+            preloadsUsed++;
+            exoPlayer.setPlayWhenReady(true);
+            int playbackState = exoPlayer.getPlaybackState();
+            logManager.addLog("Started preloaded video " + file.getName() + " (loaded "
+                + (SystemClock.uptimeMillis() - preloadStartMs) + "ms ahead, " + (playbackState == Player.STATE_READY ? "ready" : "still buffering") + ")");
+            // Already READY (and usually drawn), so no state change or render event will report it
+            if (playbackState == Player.STATE_READY) listener.onReady(mediaId);
+            if (firstFrameSeen) listener.onFirstFrame(mediaId);
+            return;
+        }
+        preloadPath = null;
+        claimedId = null;
+        switchStartMs = SystemClock.uptimeMillis();
+        firstFrameSeen = false;
+        decoderSetup = null;
+        load(exoPlayer, file, mediaId, loop);
+        exoPlayer.setPlayWhenReady(true);
+        if (loop != null) logManager.addLog("Looping " + file.getName() + " (" + loop + ")");
+    }
+
+    /** Load file paused, ready for a later play() of the same file and plan. */
+    public void preload(File file, LoopPlan loop) {
+        if (isPreloaded(file, loop)) return;
+        ExoPlayer exoPlayer = ensurePlayer();
+        finishItem();
+        preloadPath = file.getAbsolutePath();
+        preloadPlan = loop;
+        claimedId = null;
+        preloadReadyLogged = false;
+        preloadsStarted++;
+        preloadStartMs = switchStartMs = SystemClock.uptimeMillis();
+        firstFrameSeen = false;
+        decoderSetup = null;
+        exoPlayer.setPlayWhenReady(false);
+        load(exoPlayer, file, PRELOAD_ID, loop);
+        logManager.addLog("Preloading next video " + file.getName() + (loop != null ? " (" + loop + ")" : ""));
+    }
+
+    private void load(ExoPlayer exoPlayer, File file, String mediaId, LoopPlan loop) {
+        MediaItem.Builder builder = new MediaItem.Builder()
+            .setUri(Uri.fromFile(file))
+            .setMediaId(mediaId);
+        if (loop != null && (loop.clipStartMs > 0 || loop.clipEndMs > 0)) {
+            builder.setClippingConfiguration(new MediaItem.ClippingConfiguration.Builder()
+                .setStartPositionMs(loop.clipStartMs)
+                .setEndPositionMs(loop.clipEndMs > 0 ? loop.clipEndMs : C.TIME_END_OF_SOURCE)
+                .build());
+        }
+        MediaItem item = builder.build();
+        if (loop != null && loop.gapless) {
+            // Every repetition is its own playlist item on one timeline, so the next one is buffered in time
+            int queued = Math.min(loop.loopCount, MAX_QUEUED_LOOPS);
+            exoPlayer.setRepeatMode(loop.loopCount > queued ? Player.REPEAT_MODE_ALL : Player.REPEAT_MODE_OFF);
+            exoPlayer.setMediaItems(Collections.nCopies(queued, item), /* resetPosition= */ true);
+        } else {
+            exoPlayer.setRepeatMode(loop != null ? Player.REPEAT_MODE_ALL : Player.REPEAT_MODE_OFF);
+            exoPlayer.setMediaItem(item, /* resetPosition= */ true);
+        }
+        exoPlayer.prepare();
+    }
+
+    private boolean isPreloaded(File file, LoopPlan loop) {
+        return preloadPath != null && claimedId == null && player != null && player.getPlayerError() == null
+            && player.getPlaybackState() != Player.STATE_IDLE && preloadPath.equals(file.getAbsolutePath())
+            && (loop == null ? preloadPlan == null : loop.sameAs(preloadPlan));
+    }
+
+    private void startItem(String name, boolean looping) {
+        itemName = name;
+        itemLooping = looping;
+        loopIndex = 1;
+        cleanLoops = 0;
+        stallStartMs = 0;
+        loopStalls = 0;
+        loopStallMs = 0;
+        loopDropped = 0;
+        itemStalls = 0;
+        itemStallMs = 0;
+        itemDropped = 0;
+    }
+
+    // A repetition finished: log it if it was not seamless
+    private void endLoop() {
+        if (loopStalls == 0 && loopDropped == 0) {
+            cleanLoops++;
+        } else {
+            logManager.addLog("Loop " + loopIndex + " of " + itemName + ": " + loopStalls + " stalls (" + loopStallMs + "ms), "
+                + loopDropped + " dropped frames");
+        }
+        loopIndex++;
+        loopStalls = 0;
+        loopStallMs = 0;
+        loopDropped = 0;
+    }
+
+    // Log the summary for the video that was playing, if any
+    private void finishItem() {
+        if (itemName == null) return;
+        if (stallStartMs > 0) {
+            long stalled = SystemClock.uptimeMillis() - stallStartMs;
+            loopStalls++;
+            loopStallMs += stalled;
+            itemStalls++;
+            itemStallMs += stalled;
+            stallStartMs = 0;
+        }
+        String loops = "";
+        if (itemLooping) {
+            // The last repetition is usually cut short by the slide ending; count it only if it had trouble
+            if (loopStalls > 0 || loopDropped > 0) endLoop();
+            loops = (loopIndex - 1) + " loops completed, " + cleanLoops + " seamless; ";
+        }
+        logManager.addLog("Video " + itemName + " finished: " + loops + itemStalls + " stalls (" + itemStallMs + "ms), "
+            + itemDropped + " dropped frames");
+        itemName = null;
+    }
+
+    public void pause() {
+        if (player != null) player.setPlayWhenReady(false);
+    }
+
+    /** Unload the current item; the player stays built but gives up its decoders. */
+    public void stop() {
+        finishItem();
+        preloadPath = null;
+        claimedId = null;
+        if (player == null) return;
+        player.stop();
+        player.clearMediaItems();
+    }
+
+    public void release() {
+        if (player == null) return;
+        finishItem();
+        try {
+            if (view != null) view.setPlayer(null);
+            player.removeListener(playerListener);
+            player.removeAnalyticsListener(playerListener);
+            player.release();
+        } finally {
+            player = null;
+            preloadPath = null;
+            claimedId = null;
+        }
+        logManager.addLog("ExoPlayer released: " + stats());
+    }
+
+    public boolean hasPlayer() {
+        return player != null;
+    }
+
+    /** A video is loaded by preload() and waiting for its play(). */
+    public boolean hasPreload() {
+        return preloadPath != null && claimedId == null;
+    }
+
+    public boolean isPlaying() {
+        return player != null && player.isPlaying();
+    }
+
+    public int getPlaybackState() {
+        return player != null ? player.getPlaybackState() : Player.STATE_IDLE;
+    }
+
+    public long getDuration() {
+        return player != null ? player.getDuration() : 0;
+    }
+
+    public String stats() {
+        long avgInit = decoderInits > 0 ? decoderInitTotalMs / decoderInits : 0;
+        return switches + " videos on " + playersBuilt + " player(s), " + decoderInits + " decoder inits (avg "
+            + avgInit + "ms), " + decoderReuses + " decoder reuses, " + preloadsUsed + "/" + preloadsStarted + " preloads used";
+    }
+
+    private String currentMediaId() {
+        MediaItem item = player != null ? player.getCurrentMediaItem() : null;
+        if (item == null) return null;
+        return PRELOAD_ID.equals(item.mediaId) ? claimedId : item.mediaId;
+    }
+
+    // Only the renderers a local slideshow video needs: video, plus audio when enabled
+    private static final class LocalRenderersFactory extends DefaultRenderersFactory {
+        private final boolean audioEnabled;
+
+        LocalRenderersFactory(Context context, boolean audioEnabled) {
+            super(context);
+            this.audioEnabled = audioEnabled;
+        }
+
+        @Override
+        protected void buildAudioRenderers(Context context, int extensionRendererMode, MediaCodecSelector mediaCodecSelector,
+                                           boolean enableDecoderFallback, AudioSink audioSink, Handler eventHandler,
+                                           AudioRendererEventListener eventListener, ArrayList<Renderer> out) {
+            if (audioEnabled) {
+                super.buildAudioRenderers(context, extensionRendererMode, mediaCodecSelector, enableDecoderFallback,
+                    audioSink, eventHandler, eventListener, out);
+            }
+        }
+
+        @Override
+        protected void buildTextRenderers(Context context, TextOutput output,
+                                          Looper outputLooper, int extensionRendererMode, ArrayList<Renderer> out) {
+        }
+
+        @Override
+        protected void buildMetadataRenderers(Context context, MetadataOutput output,
+                                              Looper outputLooper, int extensionRendererMode, ArrayList<Renderer> out) {
+        }
+
+        @Override
+        protected void buildCameraMotionRenderers(Context context, int extensionRendererMode, ArrayList<Renderer> out) {
+        }
+    }
+
+    // The platform's decoders with software-only ones moved to the end; logs the order once per type
+    private static final class HardwareFirstSelector implements MediaCodecSelector {
+        private final LogManager logManager;
+        private final Set<String> loggedTypes = new HashSet<>();
+
+        HardwareFirstSelector(LogManager logManager) {
+            this.logManager = logManager;
+        }
+
+        @Override
+        public List<MediaCodecInfo> getDecoderInfos(String mimeType, boolean requiresSecureDecoder,
+                                                    boolean requiresTunnelingDecoder) throws MediaCodecUtil.DecoderQueryException {
+            List<MediaCodecInfo> infos = MediaCodecSelector.DEFAULT.getDecoderInfos(mimeType, requiresSecureDecoder, requiresTunnelingDecoder);
+            List<MediaCodecInfo> ordered = new ArrayList<>(infos.size());
+            for (MediaCodecInfo info : infos) {
+                if (!info.softwareOnly) ordered.add(info);
+            }
+            for (MediaCodecInfo info : infos) {
+                if (info.softwareOnly) ordered.add(info);
+            }
+            synchronized (loggedTypes) {
+                if (mimeType.startsWith("video/") && loggedTypes.add(mimeType)) {
+                    StringBuilder names = new StringBuilder();
+                    for (MediaCodecInfo info : ordered) {
+                        if (names.length() > 0) names.append(", ");
+                        names.append(info.name).append(info.softwareOnly ? " (sw)" : " (hw)");
+                    }
+                    logManager.addLog("Decoders for " + mimeType + ": " + (names.length() > 0 ? names : "none"));
+                }
+            }
+            return ordered;
+        }
+    }
+
+    private final class PlayerListener implements Player.Listener, AnalyticsListener {
+        @Override
+        public void onPlaybackStateChanged(int playbackState) {
+            String mediaId = currentMediaId();
+            if (mediaId == null) {
+                if (preloadPath != null && playbackState == Player.STATE_READY && !preloadReadyLogged) {
+                    preloadReadyLogged = true;
+                    logManager.addLog("Preloaded video ready after " + (SystemClock.uptimeMillis() - preloadStartMs) + "ms");
+                }
+                return;
+            }
+            trackStall(playbackState);
+            if (playbackState == Player.STATE_READY) {
+                listener.onReady(mediaId);
+            } else if (playbackState == Player.STATE_ENDED) {
+                listener.onEnded(mediaId);
+            }
+        }
+
+        // Rebuffering once the video has shown its first frame and is meant to be playing
+        private void trackStall(int playbackState) {
+            if (itemName == null) return;
+            long now = SystemClock.uptimeMillis();
+            if (playbackState == Player.STATE_BUFFERING && firstFrameSeen && player.getPlayWhenReady()) {
+                if (stallStartMs == 0) stallStartMs = now;
+            } else if (stallStartMs > 0) {
+                long stalled = now - stallStartMs;
+                stallStartMs = 0;
+                loopStalls++;
+                loopStallMs += stalled;
+                itemStalls++;
+                itemStallMs += stalled;
+            }
+        }
+
+        @Override
+        public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+            // Moving on to the next repetition, whether the next copy in the playlist or through repeat mode
+            if ((reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO || reason == Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT)
+                    && itemLooping && itemName != null) {
+                endLoop();
+            }
+        }
+
+        @Override
+        public void onDroppedVideoFrames(EventTime eventTime, int droppedFrames, long elapsedMs) {
+            loopDropped += droppedFrames;
+            itemDropped += droppedFrames;
+        }
+
+        @Override
+        public void onPlayerError(PlaybackException error) {
+            String mediaId = currentMediaId();
+            if (mediaId == null && preloadPath != null) {
+                // Nobody is waiting for it yet; play() will load the file again and report properly
+                logManager.addLog("Preloading failed: " + error.getMessage());
+                preloadPath = null;
+                return;
+            }
+            listener.onError(mediaId, error);
+        }
+
+        @Override
+        public void onVideoDecoderInitialized(EventTime eventTime, String decoderName,
+                                              long initializedTimestampMs, long initializationDurationMs) {
+            decoderInits++;
+            decoderInitTotalMs += initializationDurationMs;
+            decoderSetup = decoderName + " initialized in " + initializationDurationMs + "ms";
+        }
+
+        @Override
+        public void onVideoInputFormatChanged(EventTime eventTime, Format format, DecoderReuseEvaluation evaluation) {
+            if (evaluation != null && evaluation.result != DecoderReuseEvaluation.REUSE_RESULT_NO) {
+                decoderReuses++;
+                decoderSetup = evaluation.decoderName + " reused";
+            }
+        }
+
+        @Override
+        public void onRenderedFirstFrame(EventTime eventTime, Object output, long renderTimeMs) {
+            if (firstFrameSeen) return;
+            firstFrameSeen = true;
+            logManager.addLog("First video frame after " + (SystemClock.uptimeMillis() - switchStartMs) + "ms ("
+                + (decoderSetup != null ? "decoder " + decoderSetup : "decoder unchanged") + ")");
+            String mediaId = currentMediaId();
+            if (mediaId != null) listener.onFirstFrame(mediaId);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.kiwikodo.eophoenix.managers;
+
+import android.graphics.Bitmap;
+import android.media.ExifInterface;
+import android.media.MediaMetadataRetriever;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Poster frames for videos: the opening frame of each video, fitted to the screen and stored in
+ * the RenditionCache under the video's own path. Frames are keyed like image renditions (path,
+ * modification time, size), so they survive reboots and a replaced video simply gets a new one.
+ * The slideshow shows the poster in the image view while the player prepares, instead of a black
+ * screen, and BitmapLoader can load it like any image because it finds the rendition first.
+ *
+ * Posters are extracted while a video is probed during a scan, reusing the probe's retriever, and
+ * for videos indexed before posters existed just before they come up. Safe to call from any
+ * thread.
+ */
+public class VideoPosters {
+    private final RenditionCache cache;
+    private final int targetW;
+    private final int targetH;
+    private final LogManager logManager;
+    // Videos already tried this run, so a file without a decodable frame is not retried on every pass
+    private final Set<String> attempted = new HashSet<>();
+    private int extracted = 0;
+    private int failed = 0;
+
+    public VideoPosters(RenditionCache cache, int targetW, int targetH, LogManager logManager) {
+        this.cache = cache;
+        this.targetW = targetW;
+        this.targetH = targetH;
+        this.logManager = logManager;
+    }
+
+    public boolean has(File video) {
+        return cache.contains(video, targetW, targetH);
+    }
+
+    /** True the first time video is offered this run; the caller then queues extract() for it. */
+    public boolean claim(File video) {
+        synchronized (attempted) {
+            return attempted.add(video.getAbsolutePath());
+        }
+    }
+
+    /** Extract and store the poster for video, opening it with a retriever of its own. */
+    public void extract(File video, MediaIndex.Entry entry) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(video.getAbsolutePath());
+            extract(retriever, video, entry);
+        } catch (Exception e) {
+            recordFailure(video, e.getMessage());
+        } finally {
+            try { retriever.release(); } catch (Exception ignored) {}
+        }
+    }
+
+    /** Extract and store the poster using a retriever already opened on video. */
+    public void extract(MediaMetadataRetriever retriever, File video, MediaIndex.Entry entry) {
+        synchronized (attempted) {
+            attempted.add(video.getAbsolutePath());
+        }
+        if (has(video)) return;
+        // The retriever returns a full-resolution ARGB frame; skip videos that would not fit in memory
+        if (entry != null && entry.width > 0 && entry.height > 0
+                && (long) entry.width * entry.height * 4 > DecodePlanner.currentBudget() / 2) {
+            recordFailure(video, "frame too large (" + entry.width + "x" + entry.height + ")");
+            return;
+        }
+        Bitmap frame = null;
+        Bitmap fitted = null;
+        try {
+            long start = System.currentTimeMillis();
+            // The first sync frame is what playback opens on
+            frame = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (frame == null) {
+                recordFailure(video, "no frame");
+                return;
+            }
+            float scale = Math.min(1f, Math.min((float) targetW / frame.getWidth(), (float) targetH / frame.getHeight()));
+            int w = Math.max(1, Math.round(frame.getWidth() * scale));
+            int h = Math.max(1, Math.round(frame.getHeight() * scale));
+            fitted = scale < 1f ? Bitmap.createScaledBitmap(frame, w, h, true) : frame;
+            cache.put(video, targetW, targetH, fitted, ExifInterface.ORIENTATION_NORMAL);
+            synchronized (this) {
+                extracted++;
+            }
+            logManager.addLog("Poster frame stored for " + video.getName() + " (" + w + "x" + h + ", "
+                + (System.currentTimeMillis() - start) + "ms)");
+        } catch (Exception | OutOfMemoryError e) {
+            recordFailure(video, e.getMessage());
+        } finally {
+            if (fitted != null && fitted != frame) fitted.recycle();
+            if (frame != null) frame.recycle();
+        }
+    }
+
+    private void recordFailure(File video, String reason) {
+        synchronized (this) {
+            failed++;
+        }
+        logManager.addLog("No poster frame for " + video.getName() + ": " + reason);
+    }
+
+    public synchronized String stats() {
+        return "posters " + extracted + " extracted, " + failed + " failed";
+    }
+}